@@ -0,0 +1,67 @@
+package dev.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The entropy check over one 64 KiB source file, {@link EntropyDetector} against what scanBytes did
+ * before: split the decoded text into tokens and run shannon() on each long one, with a fresh char
+ * array and count table per token. Run with {@code -prof gc}; the detector should stay near zero
+ * bytes per operation apart from the samples of reported tokens.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntropyBenchmark {
+    /** none: no token reaches the threshold; some: a few keys among ordinary code. */
+    @Param({"none", "some"})
+    public String secrets;
+
+    private final EntropyDetector detector = new EntropyDetector(3.5, 1024 * 1024);
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(1);
+        String[] words = {"public", "static", "final", "String", "return", "config.getValue()", "(", ");", "=", "//",
+                "com.example.service.Handler", "http://example.com/path/to/resource", "\n", "{", "}"};
+        String key = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 64 * 1024) {
+            if (secrets.equals("some") && rnd.nextInt(200) == 0) {
+                sb.append("key = \"");
+                for (int i=0;i<40;i++) sb.append(key.charAt(rnd.nextInt(key.length())));
+                sb.append("\"\n");
+            }
+            sb.append(words[rnd.nextInt(words.length)]).append(rnd.nextInt(8) == 0 ? "\n" : " ");
+        }
+        data = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void detector(Blackhole bh) {
+        detector.scan(data, 0, data.length, bh::consume);
+    }
+
+    @Benchmark
+    public void splitAndShannon(Blackhole bh) {
+        String s = new String(data, StandardCharsets.UTF_8);
+        for (String tok : s.split("[^A-Za-z0-9+/=_-]+")) {
+            if (tok.length() >= 20 && shannon(tok) >= 3.5) bh.consume(tok);
+        }
+    }
+
+    private static double shannon(String s) {
+        int[] counts = new int[256]; int n=0;
+        for (char c: s.toCharArray()) if (c<256) { counts[c]++; n++; }
+        double H=0.0; for (int c: counts) if (c!=0) { double p=(double)c/n; H -= p*(Math.log(p)/Math.log(2)); }
+        return H;
+    }
+}
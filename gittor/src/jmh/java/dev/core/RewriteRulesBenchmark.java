@@ -0,0 +1,101 @@
+package dev.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Per-path glob matching and per-blob replacement, compiled {@link RewriteRules} against what
+ * HistoryRewriter did before: a regex built from each glob and matched on every call, and one
+ * {@code String.replaceAll} per rule.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RewriteRulesBenchmark {
+    private static final String[] FILES = {"*.bin", "id_rsa", "id_dsa", "*.pem", "secret?.txt"};
+    private static final String[] PATHS = {"secrets", "build/*", "**/node_modules", "docs/**/*.pdf"};
+
+    @State(Scope.Thread)
+    public static class Paths {
+        final String[] names = new String[1024], paths = new String[1024];
+        RewriteRules rules;
+        int next;
+
+        @Setup
+        public void setup() {
+            Random rnd = new Random(1);
+            String[] exts = {".java", ".txt", ".md", ".pem", ".bin"};
+            for (int i=0;i<names.length;i++) {
+                names[i] = "file" + rnd.nextInt(100000) + exts[i % exts.length];
+                paths[i] = "src/main/" + (i % 7 == 0 ? "build/" : "") + names[i];
+            }
+            rules = RewriteRules.of(FILES, PATHS, null);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Blobs {
+        @Param({"literal", "regex"})
+        public String finds;
+        String[] rules;
+        RewriteRules compiled;
+        byte[] matching, clean;
+
+        @Setup
+        public void setup() {
+            rules = finds.equals("literal")
+                    ? new String[]{"password=>REDACTED", "AKIA=>XXXX", "hunter2=>***"}
+                    : new String[]{"password=\\w+=>password=***", "AKIA[A-Z0-9]{16}=>XXXX", "hunter[0-9]=>***"};
+            compiled = RewriteRules.of(null, null, rules);
+            Random rnd = new Random(1);
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < 64 * 1024) sb.append("line ").append(rnd.nextInt()).append(" some words here and password=abc\n");
+            matching = sb.toString().getBytes(StandardCharsets.UTF_8);
+            clean = sb.toString().replace("password", "pass-word").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public boolean pathCompiled(Paths s) {
+        int i = s.next++ & (s.names.length - 1);
+        return s.rules.deletesFile(s.names[i], s.paths[i]);
+    }
+
+    @Benchmark
+    public boolean pathRegexPerCall(Paths s) {
+        int i = s.next++ & (s.names.length - 1);
+        for (String g : FILES) if (regexMatch(s.names[i], g)) return true;
+        for (String g : PATHS) if (regexMatch(s.paths[i], g)) return true;
+        return false;
+    }
+
+    @Benchmark
+    public byte[] blobCompiled(Blobs s) { return s.compiled.replace(s.matching); }
+
+    @Benchmark
+    public byte[] blobReplaceAll(Blobs s) { return replaceAll(s.rules, s.matching); }
+
+    @Benchmark
+    public byte[] cleanBlobCompiled(Blobs s) { return s.compiled.replace(s.clean); }
+
+    @Benchmark
+    public byte[] cleanBlobReplaceAll(Blobs s) { return replaceAll(s.rules, s.clean); }
+
+    private static boolean regexMatch(String s, String glob) {
+        return s.matches(glob.replace(".", "\\.").replace("*", ".*").replace("?", "."));
+    }
+
+    private static byte[] replaceAll(String[] rules, byte[] data) {
+        String out = new String(data, StandardCharsets.UTF_8);
+        for (String kv : rules) {
+            int i = kv.indexOf("=>");
+            out = out.replaceAll(kv.substring(0, i), kv.substring(i + 2));
+        }
+        return out.getBytes(StandardCharsets.UTF_8);
+    }
+}
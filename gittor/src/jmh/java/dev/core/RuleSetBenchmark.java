@@ -0,0 +1,59 @@
+package dev.core;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of scanning one 64 KiB source file as the number of rules grows, {@link RuleSet} against what
+ * scanFile did before: compile every rule and run its find() loop over the whole file. The first rules
+ * are the ones in .gittorrls; beyond those, vendor-style token rules with their own prefixes are added.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleSetBenchmark {
+    @Param({"10", "40", "160", "640"})
+    public int rules;
+
+    private List<SecretScanner.Rule> list;
+    private RuleSet ruleSet;
+    private String file;
+
+    @Setup
+    public void setup() {
+        List<SecretScanner.Rule> base = SecretScanner.loadRules(Path.of(".gittorrls")).rules;
+        list = new ArrayList<>();
+        for (int i=0;i<rules;i++) {
+            list.add(i < base.size() ? base.get(i) : new SecretScanner.Rule("vendor " + i, "\\bv" + i + "tok_[A-Za-z0-9]{24}\\b"));
+        }
+        ruleSet = RuleSet.compile(list);
+        Random rnd = new Random(1);
+        String[] words = {"public", "static", "final", "String", "password", "token", "client_id", "key", "secret",
+                "return", "config", "value", "http://example.com/path", "user", "=", ":", "(", ");", "//", "\n"};
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 64 * 1024) sb.append(words[rnd.nextInt(words.length)]).append(rnd.nextInt(8) == 0 ? "\n" : " ");
+        file = sb.toString();
+    }
+
+    @Benchmark
+    public void ruleSet(Blackhole bh) {
+        ruleSet.scan(file, (rule, sample) -> bh.consume(sample));
+    }
+
+    @Benchmark
+    public void compileAndFindPerRule(Blackhole bh) {
+        for (SecretScanner.Rule r : list) {
+            Matcher m = Pattern.compile(r.pattern).matcher(file);
+            while (m.find()) bh.consume(m.group());
+        }
+    }
+}
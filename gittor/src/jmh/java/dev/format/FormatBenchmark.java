@@ -0,0 +1,57 @@
+package dev.format;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * format() on multi-megabyte files against the String pipeline it replaced. The input looks like source
+ * code that needs every fix: CRLF endings, tab indents, trailing blanks and runs of blank lines. The
+ * clean variant is already formatted, the common case once a tree has been formatted before.
+ * Run with {@code -prof gc} for allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatBenchmark {
+    @Param({"1", "8"})
+    public int megabytes;
+
+    @Param({"dirty", "clean"})
+    public String input;
+
+    private final FileFormatter formatter = new FileFormatter();
+    private final FormatterConfig cfg = new FormatterConfig();
+    private byte[] in;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(1);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < megabytes * 1024 * 1024) {
+            int indent = rnd.nextInt(4);
+            sb.append("\t".repeat(indent)).append("int value").append(rnd.nextInt(1000)).append(" = compute(").append(rnd.nextInt()).append(");");
+            if (rnd.nextInt(4) == 0) sb.append("  \t");
+            sb.append("\r\n");
+            if (rnd.nextInt(10) == 0) sb.append("\r\n \r\n\r\n\r\n");
+        }
+        in = sb.toString().getBytes(StandardCharsets.UTF_8);
+        if (input.equals("clean")) in = formatter.format(in, cfg, "java");
+    }
+
+    @Benchmark
+    public byte[] bytePass() {
+        return formatter.format(in, cfg, "java");
+    }
+
+    @Benchmark
+    public byte[] stringPipeline() {
+        return FileFormatter.formatString(new String(in, StandardCharsets.UTF_8), cfg.eol, cfg.trimTrailing, cfg.ensureFinalNewline,
+                cfg.collapseBlankLinesTo, cfg.detab, cfg.tabWidth, 0);
+    }
+}
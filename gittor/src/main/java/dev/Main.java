@@ -10,6 +10,7 @@ import dev.cli.*;
     description = "GitTorrent cli",
     mixinStandardHelpOptions = true,
     subcommands = {
+            AnalyzeCmd.class,
             BundleCmd.class,
             ChainApplyCmd.class,
             CloneCmd.class,
@@ -0,0 +1,9 @@
+package dev.analysis;
+
+/** A consumer of the shared walk in {@link RepoAnalysis}; each analyzer applies its own skip rules and handles its own IO errors. */
+public interface Analyzer {
+    String name();
+    void file(FileInput f);
+    default void finish() {}
+    Object result();
+}
@@ -0,0 +1,98 @@
+package dev.analysis;
+
+import java.io.IOException;
+
+import dev.core.PathRules;
+import dev.core.SecretScanner;
+import dev.format.FileFormatter;
+import dev.format.FormatterConfig;
+
+/** The analyses behind the single-command subcommands, as {@link Analyzer}s for {@link RepoAnalysis}. */
+public class Analyzers {
+
+    /** Same findings as {@code secrets} on the working tree; files above the stream threshold are streamed unless already read. */
+    public static class Secrets implements Analyzer {
+        private final SecretScanner scanner;
+        private final SecretScanner.Result result = new SecretScanner.Result();
+        public Secrets(SecretScanner.Config cfg) { this.scanner = new SecretScanner(cfg, 1); }
+        @Override public String name() { return "secrets"; }
+        @Override public void file(FileInput f) {
+            byte[] data = null;
+            try {
+                if (f.isRead() || f.size() <= scanner.config.streamThreshold) data = f.bytes();
+            } catch (IOException e) {
+                data = null;
+            }
+            scanner.scanFile(f.path, data, result);
+        }
+        @Override public Object result() { return result; }
+    }
+
+    /** Same as {@code linguist} without the partitions, which need the size analysis. */
+    public static class Languages implements Analyzer {
+        private final LanguageStats stats = new LanguageStats();
+        private final LanguageDetector detector;
+        private final LanguageStats.Result result = new LanguageStats.Result();
+        public Languages(LanguageDetector detector) { this.detector = detector; }
+        @Override public String name() { return "languages"; }
+        @Override public void file(FileInput f) { stats.add(result, detector, detector, f); }
+        @Override public void finish() { stats.finish(result); }
+        @Override public LanguageStats.Result result() { return result; }
+    }
+
+    public static class Size implements Analyzer {
+        public static class Result { public long files; public long totalBytes; }
+        private final ProjectSizer sizer = new ProjectSizer();
+        private final LanguageStats.PathFilter filter;
+        private final Result result = new Result();
+        public Size(LanguageStats.PathFilter filter) { this.filter = filter; }
+        @Override public String name() { return "size"; }
+        @Override public void file(FileInput f) {
+            if (filter.fileSkipReason(f.path) != null) return;
+            result.files++;
+            result.totalBytes += sizer.size(filter, f);
+        }
+        @Override public Result result() { return result; }
+    }
+
+    /** {@code format} in dry-run mode: reports what would be rewritten. */
+    public static class FormatCheck implements Analyzer {
+        private final FileFormatter formatter = new FileFormatter();
+        private final FormatterConfig cfg;
+        private final PathRules rules;
+        private final LanguageDetector detector = new LanguageDetector();
+        private final FileFormatter.Result result = new FileFormatter.Result();
+        public FormatCheck(FormatterConfig cfg, PathRules rules) { this.cfg = cfg; this.rules = rules; }
+        @Override public String name() { return "format"; }
+        @Override public void file(FileInput f) {
+            if (rules.denied(f.path) != null || rules.excludedExtension(f.path) != null) return;
+            try {
+                byte[] in = f.bytes();
+                if (LanguageDetector.looksBinary(in)) return;
+                formatter.formatFile(f.path, in, cfg, detector.detect(f.path, in), false, result);
+            } catch (IOException ignored) {}
+        }
+        @Override public Object result() { return result; }
+    }
+
+    /** Which files {@code stripmeta} would have something to remove from; only strippable types are read. */
+    public static class Metadata implements Analyzer {
+        private final PathRules rules;
+        private final MetadataDetector.Result result = new MetadataDetector.Result();
+        public Metadata(PathRules rules) { this.rules = rules; }
+        @Override public String name() { return "metadata"; }
+        @Override public void file(FileInput f) {
+            if (rules.denied(f.path) != null || rules.excludedExtension(f.path) != null) { result.skipped++; return; }
+            String type = MetadataDetector.typeOf(f.path);
+            result.filesByType.merge(type, 1L, Long::sum);
+            if (!MetadataDetector.strippable(type)) return;
+            try {
+                if (MetadataDetector.hasMetadata(type, f.bytes())) {
+                    result.withMetadataByType.merge(type, 1L, Long::sum);
+                    result.withMetadata.add(f.path.toString());
+                }
+            } catch (IOException ignored) {}
+        }
+        @Override public Object result() { return result; }
+    }
+}
@@ -0,0 +1,65 @@
+package dev.analysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/** One file of a walk. Content is read on first use and then shared, so a file is read at most once however many analyzers look at it. */
+public final class FileInput {
+    private static final ThreadLocal<ByteBuffer> HEAD = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(LanguageDetector.SNIFF_BYTES));
+
+    public final Path path;
+    private final BasicFileAttributes attrs;
+    private byte[] data;
+    long readNanos;
+
+    public FileInput(Path path, BasicFileAttributes attrs) {
+        this.path = path;
+        this.attrs = attrs;
+    }
+
+    public FileInput(Path path) { this(path, null); }
+
+    public long size() throws IOException {
+        if (data != null) return data.length;
+        return attrs != null && !attrs.isSymbolicLink() ? attrs.size() : Files.size(path);
+    }
+
+    public boolean isRead() { return data != null; }
+
+    /**
+     * Copies the start of the file into {@code buf} (at most {@link LanguageDetector#SNIFF_BYTES}) and returns
+     * how many bytes that was. Only that much is read, unless the whole content already has been.
+     */
+    public int head(byte[] buf) throws IOException {
+        if (data != null) {
+            int n = Math.min(buf.length, data.length);
+            System.arraycopy(data, 0, buf, 0, n);
+            return n;
+        }
+        long t = System.nanoTime();
+        ByteBuffer bb = HEAD.get();
+        bb.clear().limit(Math.min(bb.capacity(), buf.length));
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (bb.hasRemaining() && ch.read(bb) >= 0) {}
+        }
+        bb.flip();
+        int n = bb.remaining();
+        bb.get(buf, 0, n);
+        readNanos += System.nanoTime() - t;
+        return n;
+    }
+
+    public byte[] bytes() throws IOException {
+        if (data == null) {
+            long t = System.nanoTime();
+            data = Files.readAllBytes(path);
+            readNanos += System.nanoTime() - t;
+        }
+        return data;
+    }
+}
@@ -5,9 +5,10 @@ import java.io.*;
 import java.util.*;
 import java.util.regex.*;
 
+import dev.core.PathRules;
 import dev.core.SecretScanner;
 
-public class LanguageDetector {
+public class LanguageDetector implements LanguageStats.PathFilter {
     private final Map<String, String> extToLang = new HashMap<>(Map.ofEntries(
             Map.entry("java","Java"), Map.entry("kt","Kotlin"), Map.entry("scala","Scala"),
             Map.entry("js","JavaScript"), Map.entry("ts","TypeScript"), Map.entry("tsx","TypeScript"), Map.entry("jsx","JavaScript"),
@@ -31,11 +32,13 @@ public class LanguageDetector {
     );
 
     private final SecretScanner.Config cfg;
+    private final PathRules rules;
     private List<Map.Entry<Pattern,String>> customShebang = null;
 
-    public LanguageDetector() { this.cfg = null; }
+    public LanguageDetector() { this.cfg = null; this.rules = null; }
     public LanguageDetector(SecretScanner.Config cfg) {
         this.cfg = cfg;
+        this.rules = PathRules.of(cfg);
     }
 
     public void loadOverrides(Path languagesXml) {
@@ -74,25 +77,34 @@ public class LanguageDetector {
     }
 
 
-    public static boolean looksBinary(byte[] data) {
-        int limit = Math.min(data.length, 4096);
+    /** How much of a file {@link #looksBinary} looks at; {@link #detect} only needs the first 512 bytes of it. */
+    public static final int SNIFF_BYTES = 4096;
+
+    public static boolean looksBinary(byte[] data) { return looksBinary(data, data.length); }
+
+    /** As above for the first {@code len} bytes of {@code data}. */
+    public static boolean looksBinary(byte[] data, int len) {
+        int limit = Math.min(len, SNIFF_BYTES);
         for (int i=0;i<limit;i++) if (data[i]==0) return true;
         return false;
     }
 
-    public String detect (Path file, byte[] content) {
+    /** The language the file name alone decides, or null if the content has to be looked at. */
+    public String byExtension(Path file) {
         String name = file.getFileName().toString();
         int dot = name.lastIndexOf('.');
-        if (dot == 0 && name.length() > 1) {
-            String ext = name.substring(1).toLowerCase();
-            String lang = extToLang.get(ext);
-            if (lang != null) return lang;
-        } else if (dot > 0) {
-            String ext = name.substring(dot+1).toLowerCase();
-            String lang = extToLang.get(ext);
-            if (lang != null) return lang;
-        }
-        String head = new String(content, 0, Math.min(content.length, 512));
+        if (dot == 0 && name.length() > 1) return extToLang.get(name.substring(1).toLowerCase());
+        if (dot > 0) return extToLang.get(name.substring(dot+1).toLowerCase());
+        return null;
+    }
+
+    public String detect (Path file, byte[] content) { return detect(file, content, content.length); }
+
+    /** As above, looking only at the first {@code len} bytes of {@code content}. */
+    public String detect (Path file, byte[] content, int len) {
+        String lang = byExtension(file);
+        if (lang != null) return lang;
+        String head = new String(content, 0, Math.min(len, 512));
         List<Map.Entry<Pattern,String>> sb = (customShebang != null) ? customShebang : SHEBANG;
         for (var e : sb) {
             if (e.getKey().matcher(head).find()) return e.getValue();
@@ -103,17 +115,27 @@ public class LanguageDetector {
         return "Other";
     }
 
-    public String fileSkipReason(Path p) {
+    /** Identifies everything detection and filtering depend on: the extension map, shebang patterns and include/deny rules. */
+    public String fingerprint() {
+        StringBuilder sb = new StringBuilder("v1\n");
+        new TreeMap<>(extToLang).forEach((ext, lang) -> sb.append("ext ").append(ext).append('\0').append(lang).append('\n'));
+        for (var e : (customShebang != null) ? customShebang : SHEBANG) sb.append("shebang ").append(e.getKey().pattern()).append('\0').append(e.getValue()).append('\n');
+        if (cfg != null) {
+            for (String d : cfg.denyPaths) sb.append("deny ").append(d).append('\n');
+            for (String x : new TreeSet<>(cfg.includeExtensions)) sb.append("include ").append(x).append('\n');
+        }
+        return dev.core.ScanCache.blobId(sb.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8)).name();
+    }
+
+    @Override public String fileSkipReason(Path p) {
         if (cfg == null) return null;
-        String norm = p.toString().replace('\\','/');
-        for (String d : cfg.denyPaths) if (norm.contains(d)) return "deny: " + d;
-        String name = p.getFileName().toString();
-        int dot = name.lastIndexOf('.');
-        String ext;
-        if (dot > 0) ext = name.substring(dot + 1).toLowerCase();
-        else if (dot == 0) ext = name.substring(1).toLowerCase();
-        else ext = name.toLowerCase();
-        boolean allowed = cfg.includeExtensions.contains(ext) || cfg.includeExtensions.contains(name) || cfg.includeExtensions.contains("." + ext);
-        return allowed ? null : "ext not included: " + (dot == 0 ? "." + ext : ext);
+        String d = rules.denied(p);
+        if (d != null) return "deny: " + d;
+        String ext = rules.excludedExtension(p);
+        return ext == null ? null : "ext not included: " + ext;
+    }
+
+    @Override public boolean prunes(Path dir) {
+        return rules != null && rules.prunes(dir);
     }
 }
@@ -0,0 +1,202 @@
+package dev.analysis;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.*;
+
+import com.fasterxml.jackson.core.util.DefaultIndenter;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+/**
+ * Language composition of every commit on the first-parent line of a branch, oldest first. Totals are
+ * memoized per (directory path, tree id), so a commit costs only the directories it changed, and the
+ * memo is kept in {@code .gittor/linguist-history.json} for the next run. The path is part of the key
+ * because deny rules match on it. Each point equals what {@code linguist --rev} gives for that commit,
+ * without the skipped list.
+ */
+public class LanguageHistory {
+    public static final String FILE = "linguist-history.json";
+    private static final String BINARY = "";
+
+    public static class Point {
+        public String commit;
+        public String date;
+        public long time;
+        public LanguageStats.Result stats;
+    }
+
+    public static class Totals {
+        public Map<String, Long> bytes = new LinkedHashMap<>();
+        public long projectBytes;
+        public long prunedDirs;
+    }
+
+    public static class Data {
+        public String fingerprint;
+        public Map<String, Totals> trees = new HashMap<>();
+    }
+
+    public long treesComputed = 0;
+    public long treesReused = 0;
+
+    private final LanguageStats stats = new LanguageStats();
+    private final LanguageDetector detector;
+    private final LanguageStats.PathFilter filter;
+    private final Path root;
+    private final Path file;
+    private Data data = new Data();
+    private final Map<ObjectId, Long> sizes = new HashMap<>();
+    private final Map<ObjectId, String> sniffed = new HashMap<>();
+
+    /** {@code cacheDir} may be null to keep the memo in memory only. */
+    public LanguageHistory(LanguageDetector detector, LanguageStats.PathFilter filter, Path root, Path cacheDir) {
+        this.detector = detector;
+        this.filter = filter;
+        this.root = root;
+        this.file = cacheDir == null ? null : cacheDir.resolve(".gittor").resolve(FILE);
+        String fingerprint = detector.fingerprint() + " " + root;
+        if (file != null && Files.isRegularFile(file)) {
+            try {
+                Data d = mapper().readValue(file.toFile(), Data.class);
+                if (fingerprint.equals(d.fingerprint)) data = d;
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable history cache " + file + ": " + e.getMessage());
+            }
+        }
+        data.fingerprint = fingerprint;
+    }
+
+    /** One point per commit reachable from {@code rev} through first parents, or with {@code byDay} the last commit of each (UTC) day. */
+    public List<Point> run(Repository repo, String rev, boolean byDay) {
+        List<Point> points = new ArrayList<>();
+        try (ObjectReader reader = repo.newObjectReader(); ObjectReader blobs = reader.newReader(); RevWalk rw = new RevWalk(reader)) {
+            blobs.setStreamFileThreshold(LanguageDetector.SNIFF_BYTES);
+            ObjectId tip = repo.resolve(rev);
+            if (tip == null) throw new IllegalArgumentException("unknown revision: " + rev);
+            rw.setFirstParent(true);
+            rw.markStart(rw.parseCommit(tip));
+            List<RevCommit> commits = new ArrayList<>();
+            String lastDay = null;
+            for (RevCommit c : rw) {
+                String day = day(c);
+                if (byDay && day.equals(lastDay)) continue;
+                lastDay = day;
+                commits.add(c);
+            }
+            Collections.reverse(commits);
+            for (RevCommit c : commits) {
+                Totals t = tree(reader, blobs, c.getTree(), "");
+                LanguageStats.Result r = new LanguageStats.Result();
+                r.bytesByLanguage.putAll(t.bytes);
+                r.totalBytes = t.bytes.values().stream().mapToLong(Long::longValue).sum();
+                r.prunedDirs = t.prunedDirs;
+                stats.finish(r);
+                r.partition(t.projectBytes);
+                Point p = new Point();
+                p.commit = c.name();
+                p.time = c.getCommitTime();
+                p.date = day(c);
+                p.stats = r;
+                points.add(p);
+            }
+        } catch (IOException e) { throw new RuntimeException("linguist history failed: "+e.getMessage(), e); }
+        save();
+        return points;
+    }
+
+    private Totals tree(ObjectReader reader, ObjectReader blobs, AnyObjectId id, String path) throws IOException {
+        String key = id.name() + " " + path;
+        Totals t = data.trees.get(key);
+        if (t != null) { treesReused++; return t; }
+        t = new Totals();
+        for (CanonicalTreeParser p = new CanonicalTreeParser(null, reader, id); !p.eof(); p.next()) {
+            String child = path.isEmpty() ? p.getEntryPathString() : path + "/" + p.getEntryPathString();
+            Path fp = root.resolve(child);
+            FileMode mode = p.getEntryFileMode();
+            if (mode == FileMode.TREE) {
+                if (filter != null && filter.prunes(fp)) { t.prunedDirs++; continue; }
+                Totals sub = tree(reader, blobs, p.getEntryObjectId(), child);
+                for (var e : sub.bytes.entrySet()) t.bytes.merge(e.getKey(), e.getValue(), Long::sum);
+                t.projectBytes += sub.projectBytes;
+                t.prunedDirs += sub.prunedDirs;
+            } else if (mode == FileMode.REGULAR_FILE || mode == FileMode.EXECUTABLE_FILE) {
+                if (filter != null && filter.fileSkipReason(fp) != null) continue;
+                ObjectId blob = p.getEntryObjectId();
+                Long sz = sizes.get(blob);
+                if (sz == null) sizes.put(blob, sz = blobs.getObjectSize(blob, Constants.OBJ_BLOB));
+                t.projectBytes += sz;
+                String lang = detector.byExtension(fp);
+                if (lang == null) {
+                    // without a deciding extension the language depends on the content alone
+                    lang = sniffed.get(blob);
+                    if (lang == null) {
+                        lang = stats.blobLanguage(blobs, blob, sz, fp, detector);
+                        sniffed.put(blob, lang = (lang == null ? BINARY : lang));
+                    }
+                    if (lang.equals(BINARY)) continue;
+                }
+                t.bytes.merge(lang, sz, Long::sum);
+            }
+        }
+        data.trees.put(key, t);
+        treesComputed++;
+        return t;
+    }
+
+    private void save() {
+        if (file == null) return;
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), FILE, ".tmp");
+            mapper().writeValue(tmp.toFile(), data);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write history cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static String day(RevCommit c) {
+        return Instant.ofEpochSecond(c.getCommitTime()).atZone(ZoneOffset.UTC).toLocalDate().toString();
+    }
+
+    public static String toCsv(List<Point> points) {
+        Set<String> langs = new LinkedHashSet<>();
+        for (Point p : points) langs.addAll(p.stats.bytesByLanguage.keySet());
+        StringBuilder sb = new StringBuilder("commit,date,total_bytes,project_bytes");
+        for (String l : langs) sb.append(',').append(csv(l));
+        sb.append(System.lineSeparator());
+        for (Point p : points) {
+            sb.append(p.commit).append(',').append(p.date).append(',').append(p.stats.totalBytes).append(',').append(p.stats.totalProjectBytes);
+            for (String l : langs) sb.append(',').append(p.stats.bytesByLanguage.getOrDefault(l, 0L));
+            sb.append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    public static String toJson(List<Point> points) {
+        try {
+            DefaultPrettyPrinter pp = new DefaultPrettyPrinter()
+                    .withObjectIndenter(new DefaultIndenter("  ", "\n"))
+                    .withArrayIndenter(new DefaultIndenter("  ", "\n"));
+            return new ObjectMapper().writer(pp).writeValueAsString(points) + System.lineSeparator();
+        } catch (Exception e) {
+            return "[]" + System.lineSeparator();
+        }
+    }
+
+    private static String csv(String s) {
+        return s.contains(",") || s.contains("\"") ? "\"" + s.replace("\"", "\"\"") + "\"" : s;
+    }
+
+    private static ObjectMapper mapper() {
+        return new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+}
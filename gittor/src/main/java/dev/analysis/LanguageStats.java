@@ -3,12 +3,29 @@ package dev.analysis;
 import java.nio.file.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
+import dev.core.PathRules;
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.core.util.DefaultIndenter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class LanguageStats {
+    /** List files from the git index instead of walking the directory. */
+    public boolean trackedOnly;
+    /** Threads {@link #compute} detects languages on; 1 keeps everything on the calling thread. */
+    public int threads = 1;
+    /**
+     * Files {@link #compute} reads at once when {@code threads > 1}, on a pool of their own; 0 means as many as
+     * {@code threads}. Worth raising well above the core count on network file systems, where a read waits on latency.
+     */
+    public int ioThreads = 0;
+    private final byte[] sniff = new byte[LanguageDetector.SNIFF_BYTES];
+
     public static class Result {
         public Map<String,Long> bytesByLanguage = new LinkedHashMap<>();
         public long totalBytes = 0;
@@ -16,6 +33,19 @@ public class LanguageStats {
         public long totalProjectBytes = 0;
         public Map<String, Long> partitions = new LinkedHashMap<>();
         public List<String> skipped = new ArrayList<>();
+        public long prunedDirs = 0;
+
+        /** Splits {@code totalProjectBytes} (all included files, binary or not) by the text percentages. */
+        public void partition(long totalProjectBytes) {
+            this.totalProjectBytes = totalProjectBytes;
+            if (totalProjectBytes > 0 && !percentages.isEmpty()) {
+                percentages.forEach((lang, pct) -> {
+                    long part = Math.round((pct / 100.0) * totalProjectBytes);
+                    partitions.put(lang, part);
+                });
+            }
+        }
+
         public String toJson() {
             try {
                 ObjectMapper om = new ObjectMapper();
@@ -31,32 +61,189 @@ public class LanguageStats {
 
     public interface PathFilter {
         String fileSkipReason(Path p);
+        /** Directories for which this is true are not descended into; everything below them must be skipped anyway. */
+        default boolean prunes(Path dir) { return false; }
     }
 
     public Result compute(Path root, LanguageDetector detector, Path langOverrides, PathFilter filter) {
         if (langOverrides != null) detector.loadOverrides(langOverrides);
+        if (threads > 1) return computeParallel(root, detector, filter);
+        Result r = new Result();
+        r.prunedDirs = PathRules.walk(root, trackedOnly, d -> filter != null && filter.prunes(d), (p, attrs) -> add(r, detector, filter, new FileInput(p, attrs)));
+        finish(r);
+        return r;
+    }
+
+    /** Per-thread share of a parallel run; languages remember the first file (in walk order) they were seen in. */
+    private static final class Partial {
+        final Map<String, long[]> langs = new HashMap<>();
+        final List<Map.Entry<Long, String>> skipped = new ArrayList<>();
+
+        void add(long seq, String lang, long size) {
+            long[] v = langs.computeIfAbsent(lang, k -> new long[]{0, seq});
+            v[0] += size;
+            v[1] = Math.min(v[1], seq);
+        }
+
+        void skip(long seq, String entry) { skipped.add(Map.entry(seq, entry)); }
+    }
+
+    /**
+     * The walk numbers files in order; known extensions are settled on the walking thread from the size
+     * alone, the rest have their header read on the I/O pool and are detected on the worker pool. Each
+     * thread adds into its own {@link Partial}. The merge orders languages by the first file they were
+     * seen in and skipped entries by file, so the result is the one a sequential run gives.
+     */
+    private Result computeParallel(Path root, LanguageDetector detector, PathFilter filter) {
+        int io = ioThreads > 0 ? ioThreads : threads;
+        int inFlight = 4 * Math.max(io, threads);
+        ExecutorService readers = Executors.newFixedThreadPool(io);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        Queue<Partial> partials = new ConcurrentLinkedQueue<>();
+        ThreadLocal<Partial> local = ThreadLocal.withInitial(() -> { Partial p = new Partial(); partials.add(p); return p; });
+        Semaphore window = new Semaphore(inFlight);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long[] seq = {0};
         Result r = new Result();
         try {
-            Files.walk(root).filter(Files::isRegularFile).forEach(p -> {
+            r.prunedDirs = PathRules.walk(root, trackedOnly, d -> filter != null && filter.prunes(d), (p, attrs) -> {
+                if (failure.get() != null) return;
+                long s = seq[0]++;
+                FileInput f = new FileInput(p, attrs);
+                String reason = (filter != null) ? filter.fileSkipReason(p) : null;
+                if (reason != null) { local.get().skip(s, p.toString()+" :: "+reason); return; }
+                String known = detector.byExtension(p);
+                if (known != null) {
+                    try { local.get().add(s, known, f.size()); } catch (IOException e) { local.get().skip(s, p +" :: IO error: "+e.getMessage()); }
+                    return;
+                }
+                window.acquireUninterruptibly();
+                CompletableFuture.supplyAsync(() -> {
+                    byte[] buf = new byte[LanguageDetector.SNIFF_BYTES];
+                    try { return Arrays.copyOf(buf, f.head(buf)); } catch (IOException e) { throw new UncheckedIOException(e); }
+                }, readers).handleAsync((head, err) -> {
+                    if (err != null) {
+                        Throwable cause = err instanceof CompletionException ? err.getCause() : err;
+                        if (!(cause instanceof UncheckedIOException)) { failure.compareAndSet(null, cause); return null; }
+                        local.get().skip(s, p +" :: IO error: "+cause.getCause().getMessage());
+                    } else if (LanguageDetector.looksBinary(head)) {
+                        local.get().skip(s, p +" :: binary");
+                    } else {
+                        try { local.get().add(s, detector.detect(p, head), f.size()); } catch (IOException e) { local.get().skip(s, p +" :: IO error: "+e.getMessage()); }
+                    }
+                    return null;
+                }, workers).whenComplete((v, err) -> {
+                    if (err != null) failure.compareAndSet(null, err);
+                    window.release();
+                });
+            });
+            window.acquireUninterruptibly(inFlight);
+        } finally {
+            readers.shutdownNow();
+            workers.shutdownNow();
+        }
+        if (failure.get() != null) throw new RuntimeException("linguist failed: "+failure.get().getMessage(), failure.get());
+
+        Map<String, long[]> langs = new HashMap<>();
+        List<Map.Entry<Long, String>> skipped = new ArrayList<>();
+        for (Partial part : partials) {
+            part.langs.forEach((lang, v) -> langs.merge(lang, v, (a, b) -> new long[]{a[0] + b[0], Math.min(a[1], b[1])}));
+            skipped.addAll(part.skipped);
+        }
+        langs.entrySet().stream().sorted(Comparator.comparingLong(e -> e.getValue()[1])).forEach(e -> {
+            r.bytesByLanguage.put(e.getKey(), e.getValue()[0]);
+            r.totalBytes += e.getValue()[0];
+        });
+        skipped.sort(Map.Entry.comparingByKey());
+        for (var e : skipped) r.skipped.add(e.getValue());
+        finish(r);
+        return r;
+    }
+
+    /**
+     * Same as {@link #compute} followed by {@link Result#partition}, over the tree of {@code rev} instead
+     * of a checkout, so it works on bare repositories. Sizes come from the object headers; blobs whose
+     * extension decides the language are not opened, and of the others only the first
+     * {@link LanguageDetector#SNIFF_BYTES} are inflated, for the binary and shebang checks.
+     * Paths are reported under {@code root} as a checkout there would have them. Symlinks and
+     * submodules are not counted.
+     */
+    public Result computeAt(Repository repo, String rev, Path root, LanguageDetector detector, PathFilter filter) {
+        Result r = new Result();
+        long projectBytes = 0;
+        try (ObjectReader reader = repo.newObjectReader(); ObjectReader blobs = reader.newReader();
+             RevWalk rw = new RevWalk(reader); TreeWalk tw = new TreeWalk(reader)) {
+            // above this size open() hands back a streaming loader instead of inflating the whole blob
+            blobs.setStreamFileThreshold(LanguageDetector.SNIFF_BYTES);
+            ObjectId id = repo.resolve(rev);
+            if (id == null) throw new IllegalArgumentException("unknown revision: " + rev);
+            tw.addTree(rw.parseTree(id));
+            while (tw.next()) {
+                Path p = root.resolve(tw.getPathString());
+                if (tw.isSubtree()) {
+                    if (filter != null && filter.prunes(p)) r.prunedDirs++;
+                    else tw.enterSubtree();
+                    continue;
+                }
+                FileMode mode = tw.getFileMode(0);
+                if (mode != FileMode.REGULAR_FILE && mode != FileMode.EXECUTABLE_FILE) continue;
                 String reason = (filter != null) ? filter.fileSkipReason(p) : null;
-                if (reason != null) { r.skipped.add(p.toString()+" :: "+reason); return; }
+                if (reason != null) { r.skipped.add(p+" :: "+reason); continue; }
+                ObjectId blob = tw.getObjectId(0);
                 try {
-                    byte[] data = Files.readAllBytes(p);
-                    if (LanguageDetector.looksBinary(data)) { r.skipped.add(p +" :: binary"); return; }
-                    String lang = detector.detect(p, data);
-                    long sz = data.length;
+                    long sz = blobs.getObjectSize(blob, Constants.OBJ_BLOB);
+                    projectBytes += sz;
+                    String lang = blobLanguage(blobs, blob, sz, p, detector);
+                    if (lang == null) { r.skipped.add(p +" :: binary"); continue; }
                     r.bytesByLanguage.merge(lang, sz, Long::sum);
                     r.totalBytes += sz;
                 } catch (IOException io) {
                     r.skipped.add(p +" :: IO error: "+io.getMessage());
                 }
-            });
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            }
+        } catch (IOException e) { throw new RuntimeException("linguist at "+rev+" failed: "+e.getMessage(), e); }
+        finish(r);
+        r.partition(projectBytes);
+        return r;
+    }
+
+    /** Language of a blob, from its name or else its first bytes; null if it looks binary. */
+    String blobLanguage(ObjectReader blobs, ObjectId blob, long size, Path p, LanguageDetector detector) throws IOException {
+        String lang = detector.byExtension(p);
+        if (lang != null) return lang;
+        int n = 0;
+        if (size > 0) {
+            try (InputStream in = blobs.open(blob, Constants.OBJ_BLOB).openStream()) { n = in.readNBytes(sniff, 0, sniff.length); }
         }
+        return LanguageDetector.looksBinary(sniff, n) ? null : detector.detect(p, sniff, n);
+    }
+
+    /**
+     * Counts one file. Its size comes from the walk's attributes; a file whose extension decides the
+     * language is not opened at all, any other has only its first {@link LanguageDetector#SNIFF_BYTES} read.
+     */
+    public void add(Result r, LanguageDetector detector, PathFilter filter, FileInput f) {
+        Path p = f.path;
+        String reason = (filter != null) ? filter.fileSkipReason(p) : null;
+        if (reason != null) { r.skipped.add(p.toString()+" :: "+reason); return; }
+        try {
+            String lang = detector.byExtension(p);
+            if (lang == null) {
+                int n = f.head(sniff);
+                if (LanguageDetector.looksBinary(sniff, n)) { r.skipped.add(p +" :: binary"); return; }
+                lang = detector.detect(p, sniff, n);
+            }
+            long sz = f.size();
+            r.bytesByLanguage.merge(lang, sz, Long::sum);
+            r.totalBytes += sz;
+        } catch (IOException io) {
+            r.skipped.add(p +" :: IO error: "+io.getMessage());
+        }
+    }
+
+    public void finish(Result r) {
         if (r.totalBytes > 0) {
             r.bytesByLanguage.entrySet().stream().sorted((a,b) -> Long.compare(b.getValue(), a.getValue())).forEach(e -> r.percentages.put(e.getKey(), (e.getValue()*100.0)/r.totalBytes));
         }
-        return r;
     }
 }
@@ -0,0 +1,94 @@
+package dev.analysis;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Tells which files carry embedded metadata that {@code stripmeta} would remove, from the bytes alone:
+ * EXIF/XMP/IPTC/comment segments in JPEG, text/time/EXIF chunks in PNG, EXIF/XMP chunks in WebP,
+ * an XMP extension in GIF, and an info dictionary or XMP stream in PDF. TIFF always counts,
+ * since its tags are the metadata.
+ */
+public class MetadataDetector {
+    public static class Result {
+        public Map<String, Long> filesByType = new TreeMap<>();
+        public Map<String, Long> withMetadataByType = new TreeMap<>();
+        public List<String> withMetadata = new ArrayList<>();
+        public long skipped = 0;
+    }
+
+    public static String typeOf(Path p) {
+        String n = p.getFileName().toString().toLowerCase();
+        if (n.endsWith(".pdf")) return "pdf";
+        if (n.endsWith(".jpg") || n.endsWith(".jpeg")) return "jpeg";
+        if (n.endsWith(".png")) return "png";
+        if (n.endsWith(".tif") || n.endsWith(".tiff")) return "tiff";
+        if (n.endsWith(".gif") || n.endsWith(".bmp") || n.endsWith(".webp")) return "image";
+        if (n.endsWith(".txt") || n.endsWith(".md") || n.endsWith(".java") || n.endsWith(".xml") || n.endsWith(".json") || n.endsWith(".yml") || n.endsWith(".yaml"))
+            return "text";
+        return "unknown";
+    }
+
+    /** True for the types stripmeta rewrites. */
+    public static boolean strippable(String type) {
+        return switch (type) { case "pdf", "jpeg", "png", "tiff", "image" -> true; default -> false; };
+    }
+
+    public static boolean hasMetadata(String type, byte[] b) {
+        return switch (type) {
+            case "jpeg" -> jpeg(b);
+            case "png" -> png(b);
+            case "pdf" -> contains(b, "/Info") || contains(b, "/Metadata");
+            case "tiff" -> true;
+            case "image" -> webp(b) || gif(b);
+            default -> false;
+        };
+    }
+
+    private static boolean jpeg(byte[] b) {
+        int i = 2;
+        while (i + 4 <= b.length && (b[i] & 0xff) == 0xff) {
+            int marker = b[i+1] & 0xff;
+            if (marker == 0xda || marker == 0xd9) break;
+            int len = ((b[i+2] & 0xff) << 8) | (b[i+3] & 0xff);
+            if (marker == 0xe1 || marker == 0xed || marker == 0xfe) return true;
+            if (len > b.length - i - 2) break;
+            i += 2 + len;
+        }
+        return false;
+    }
+
+    private static boolean png(byte[] b) {
+        long i = 8;
+        while (i + 8 <= b.length) {
+            int p = (int) i;
+            long len = ((b[p] & 0xffL) << 24) | ((b[p+1] & 0xff) << 16) | ((b[p+2] & 0xff) << 8) | (b[p+3] & 0xff);
+            String type = new String(b, p+4, 4, StandardCharsets.ISO_8859_1);
+            if (type.equals("tEXt") || type.equals("zTXt") || type.equals("iTXt") || type.equals("eXIf") || type.equals("tIME")) return true;
+            if (type.equals("IEND")) break;
+            if (len > b.length - i - 12) break;
+            i += 12 + len;
+        }
+        return false;
+    }
+
+    private static boolean webp(byte[] b) {
+        return b.length >= 12 && new String(b, 8, 4, StandardCharsets.ISO_8859_1).equals("WEBP")
+                && (contains(b, "EXIF") || contains(b, "XMP "));
+    }
+
+    private static boolean gif(byte[] b) {
+        return b.length >= 6 && new String(b, 0, 3, StandardCharsets.ISO_8859_1).equals("GIF") && contains(b, "XMP DataXMP");
+    }
+
+    private static boolean contains(byte[] b, String needle) {
+        byte[] n = needle.getBytes(StandardCharsets.ISO_8859_1);
+        outer:
+        for (int i=0;i+n.length<=b.length;i++) {
+            for (int j=0;j<n.length;j++) if (b[i+j] != n[j]) continue outer;
+            return true;
+        }
+        return false;
+    }
+}
@@ -2,25 +2,24 @@ package dev.analysis;
 
 import java.nio.file.*;
 import java.io.IOException;
-import java.util.function.Function;
+
+import dev.core.PathRules;
 
 public class ProjectSizer {
+    /** List files from the git index instead of walking the directory; sizes then come from the index too. */
+    public boolean trackedOnly;
 
-    public long totalBytes(Path root, Function<Path, String> fileSkipReason) {
+    public long totalBytes(Path root, LanguageStats.PathFilter filter) {
         final long[] total = {0L};
-        try {
-            Files.walk(root)
-                    .filter(Files::isRegularFile)
-                    .forEach(p -> {
-                        String reason = fileSkipReason.apply(p);
-                        if (reason != null) return;
-                        try {
-                            total[0] += Files.size(p);
-                        } catch (IOException ignored) {}
-                    });
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        PathRules.walk(root, trackedOnly, filter::prunes, (p, attrs) -> total[0] += size(filter, new FileInput(p, attrs)));
         return total[0];
     }
+
+    /** Bytes {@code f} adds to the project total: its size unless the filter skips it. */
+    public long size(LanguageStats.PathFilter filter, FileInput f) {
+        if (filter.fileSkipReason(f.path) != null) return 0;
+        try {
+            return f.size();
+        } catch (IOException ignored) { return 0; }
+    }
 }
\ No newline at end of file
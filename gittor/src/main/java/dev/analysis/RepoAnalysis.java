@@ -0,0 +1,79 @@
+package dev.analysis;
+
+import java.nio.file.Path;
+import java.util.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import dev.core.PathRules;
+
+/**
+ * Walks a tree once and hands every regular file to each analyzer in turn. A file's content is read at
+ * most once, and only if some analyzer asks for it. Time spent inside each analyzer is measured
+ * separately from the walk and from reading.
+ */
+public class RepoAnalysis {
+    public static class Result {
+        public long filesWalked = 0;
+        public long filesRead = 0;
+        public long bytesRead = 0;
+        public long prunedDirs = 0;
+        public Map<String, Double> timingsMs = new LinkedHashMap<>();
+        public Map<String, Object> results = new LinkedHashMap<>();
+
+        public String toJson() {
+            try {
+                return new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(this);
+            } catch (Exception e) {
+                return "{ error }";
+            }
+        }
+    }
+
+    private final List<Analyzer> analyzers = new ArrayList<>();
+    /** List files from the git index instead of walking the directory. */
+    public boolean trackedOnly;
+
+    public RepoAnalysis add(Analyzer a) {
+        analyzers.add(a);
+        return this;
+    }
+
+    public Result run(Path root, PathRules rules) {
+        Result r = new Result();
+        long[] spent = new long[analyzers.size()];
+        long[] read = {0};
+        long start = System.nanoTime();
+        r.prunedDirs = PathRules.walk(root, trackedOnly, rules::prunes, (p, attrs) -> {
+            FileInput f = new FileInput(p, attrs);
+            r.filesWalked++;
+            for (int i=0;i<analyzers.size();i++) {
+                long t = System.nanoTime(), before = f.readNanos;
+                analyzers.get(i).file(f);
+                spent[i] += System.nanoTime() - t - (f.readNanos - before);
+            }
+            if (f.isRead()) {
+                r.filesRead++;
+                try { r.bytesRead += f.size(); } catch (java.io.IOException ignored) {}
+            }
+            read[0] += f.readNanos;
+        });
+        for (int i=0;i<analyzers.size();i++) {
+            long t = System.nanoTime();
+            analyzers.get(i).finish();
+            spent[i] += System.nanoTime() - t;
+        }
+        long total = System.nanoTime() - start;
+        long inAnalyzers = Arrays.stream(spent).sum();
+        r.timingsMs.put("walk", ms(total - read[0] - inAnalyzers));
+        r.timingsMs.put("read", ms(read[0]));
+        for (int i=0;i<analyzers.size();i++) {
+            r.timingsMs.put(analyzers.get(i).name(), ms(spent[i]));
+            r.results.put(analyzers.get(i).name(), analyzers.get(i).result());
+        }
+        r.timingsMs.put("total", ms(total));
+        return r;
+    }
+
+    private static double ms(long nanos) { return Math.round(nanos / 10_000.0) / 100.0; }
+}
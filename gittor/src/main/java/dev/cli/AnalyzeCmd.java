@@ -0,0 +1,63 @@
+package dev.cli;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import dev.analysis.*;
+import dev.core.PathRules;
+import dev.core.SecretScanner;
+import dev.format.FormatterConfig;
+
+@Command(name="analyze", description="Run secrets, language stats, size, format check and metadata detection in one walk")
+public class AnalyzeCmd implements Runnable {
+    @Option(names="--repo", required=true) Path repo;
+    @Option(names="--rules", description="rules.xml for secrets and include/deny filters") Path rules;
+    @Option(names="--languages", description="languages.xml overrides (ext→lang)") Path languages;
+    @Option(names="--config", description="Path to .gittorfmt for the format check") Path fmtConfig;
+    @Option(names="--only", split=",", defaultValue="secrets,languages,size,format,metadata", description="Analyzers to run") List<String> only;
+    @Option(names="--json", defaultValue="false") boolean json;
+    @Option(names="--tracked-only", defaultValue="false", description="Only files in the git index (as git ls-files lists them)") boolean trackedOnly;
+
+    @Override public void run() {
+        var cfg = SecretScanner.loadRules(rules);
+        var pathRules = PathRules.of(cfg);
+        var det = new LanguageDetector(cfg);
+        det.loadOverrides(languages);
+
+        var analysis = new RepoAnalysis();
+        analysis.trackedOnly = trackedOnly;
+        for (String name : only) {
+            switch (name.trim()) {
+                case "secrets" -> analysis.add(new Analyzers.Secrets(cfg));
+                case "languages" -> analysis.add(new Analyzers.Languages(det));
+                case "size" -> analysis.add(new Analyzers.Size(det));
+                case "format" -> analysis.add(new Analyzers.FormatCheck(FormatterConfig.load(fmtConfig), pathRules));
+                case "metadata" -> analysis.add(new Analyzers.Metadata(pathRules));
+                default -> throw new IllegalArgumentException("unknown analyzer: " + name);
+            }
+        }
+        var res = analysis.run(repo, pathRules);
+        if (res.results.get("languages") instanceof LanguageStats.Result langs && res.results.get("size") instanceof Analyzers.Size.Result size) {
+            langs.partition(size.totalBytes);
+        }
+
+        if (json) {
+            System.out.println(res.toJson());
+            return;
+        }
+        System.out.printf("Files walked: %d, read: %d (%d bytes), pruned dirs: %d%n", res.filesWalked, res.filesRead, res.bytesRead, res.prunedDirs);
+        res.results.forEach((name, r) -> {
+            String line = "";
+            if (r instanceof SecretScanner.Result s) line = "files scanned " + s.filesScanned + ", findings " + s.findings.size();
+            else if (r instanceof LanguageStats.Result l) line = "text bytes " + l.totalBytes + ", languages " + l.percentages.keySet();
+            else if (r instanceof Analyzers.Size.Result s) line = "files " + s.files + ", bytes " + s.totalBytes;
+            else if (r instanceof dev.format.FileFormatter.Result f) line = "considered " + f.filesConsidered + ", would rewrite " + f.filesRewritten;
+            else if (r instanceof MetadataDetector.Result m) line = "with metadata " + m.withMetadataByType;
+            System.out.printf(" - %-10s %s%n", name, line);
+        });
+        System.out.println("Timings (ms): " + res.timingsMs);
+    }
+}
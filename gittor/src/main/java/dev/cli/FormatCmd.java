@@ -4,42 +4,56 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
 import java.nio.file.Path;
+import java.util.concurrent.Callable;
 
+import dev.core.PathRules;
 import dev.core.SecretScanner;
 import dev.analysis.LanguageDetector;
 import dev.format.*;
 
 @Command(name="format", description="Apply repository formatting per .gittorfmt.xml")
-public class FormatCmd implements Runnable {
+public class FormatCmd implements Callable<Integer> {
     @Option(names="--repo", required=true) Path repo;
     @Option(names="--config", description="Path to .gittorfmt") Path cfgPath;
     @Option(names="--write", defaultValue="false", description="Write changes to disk (otherwise dry-run)") boolean write;
     @Option(names="--json", defaultValue="false") boolean json;
     @Option(names="--rules", description="Use rules.xml filters for include/deny consistency") Path rules;
+    @Option(names="--tracked-only", defaultValue="false", description="Only files in the git index (as git ls-files lists them)") boolean trackedOnly;
+    @Option(names="--threads", defaultValue="1", description="Files formatted at once (0 = available cores)") int threads;
+    @Option(names="--since", description="Only files changed since this ref (against its merge base with HEAD), staged or not") String since;
+    @Option(names="--staged", defaultValue="false", description="Only files whose staged content differs from HEAD") boolean staged;
+    @Option(names="--check", defaultValue="false", description="Dry-run that exits 1 if any file needs formatting") boolean check;
+    @Option(names="--cache", defaultValue="false", description="Skip files earlier runs found formatted via .gittor/format-manifest.json") boolean cache;
 
-    @Override public void run() {
+    @Override public Integer call() {
+        if (check && write) throw new IllegalArgumentException("--check and --write are exclusive");
+        if (since != null && staged) throw new IllegalArgumentException("--since and --staged are exclusive");
         FormatterConfig cfg = FormatterConfig.load(cfgPath);
-        var sec = SecretScanner.loadRules(rules);
+        var sec = PathRules.of(SecretScanner.loadRules(rules));
         var det = new LanguageDetector();
 
-        var res = new FileFormatter().formatTree(
+        var formatter = new FileFormatter();
+        formatter.trackedOnly = trackedOnly;
+        formatter.since = since;
+        formatter.staged = staged;
+        if (cache) formatter.manifest = FormatManifest.open(repo, det.fingerprint() + " " + java.nio.charset.Charset.defaultCharset().name());
+        formatter.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        var res = formatter.formatTree(
                 repo, cfg,
                 p -> {
+                    String lang = det.byExtension(p);
+                    if (lang != null) return lang;
                     try {
                         byte[] data = java.nio.file.Files.readAllBytes(p);
                         return det.detect(p, data);
                     } catch (Exception e) { return "Other"; }
                 },
                 p -> {
-                    String norm = p.toString().replace('\\','/');
-                    for (String d : sec.denyPaths) if (norm.contains(d)) return "deny: "+d;
-                    String name = p.getFileName().toString();
-                    String ext; int dot = name.lastIndexOf('.');
-                    if (dot > 0) ext = name.substring(dot+1).toLowerCase();
-                    else if (dot == 0) ext = name.substring(1).toLowerCase(); else ext = name.toLowerCase();
-                    boolean allowed = sec.includeExtensions.contains(ext) || sec.includeExtensions.contains(name) || sec.includeExtensions.contains("." + ext);
-                    return allowed ? null : "ext not included";
+                    String d = sec.denied(p);
+                    if (d != null) return "deny: "+d;
+                    return sec.excludedExtension(p) == null ? null : "ext not included";
                 },
+                sec::prunes,
                 write
         );
 
@@ -50,10 +64,13 @@ public class FormatCmd implements Runnable {
         } else {
             System.out.printf("Files considered: %d, rewritten: %d, bytesΔ: %+d%n",
                     res.filesConsidered, res.filesRewritten, res.bytesDelta);
+            if (res.prunedDirs > 0) System.out.printf("Pruned directories: %d%n", res.prunedDirs);
+            if (formatter.manifest != null) System.out.printf("Already formatted: %d unchanged since the last run, %d by content hash%n", res.manifestSkipped, res.manifestHits);
             for (var c : res.changes) {
                 System.out.printf("  - %s (%d -> %d) %s%n", c.path, c.originalBytes, c.newBytes, c.note);
             }
-            if (!write) System.out.println("(dry-run; use --write to apply)");
+            if (!write && !check) System.out.println("(dry-run; use --write to apply)");
         }
+        return check && res.filesRewritten > 0 ? 1 : 0;
     }
 }
\ No newline at end of file
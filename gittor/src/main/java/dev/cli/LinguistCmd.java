@@ -3,9 +3,14 @@ package dev.cli;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
+import java.io.IOException;
 import java.nio.file.Path;
 
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
 import dev.analysis.LanguageDetector;
+import dev.analysis.LanguageHistory;
 import dev.analysis.LanguageStats;
 import dev.core.SecretScanner;
 
@@ -15,22 +20,45 @@ public class LinguistCmd implements Runnable {
     @Option(names="--languages", description="languages.xml overrides (ext→lang)") Path languages;
     @Option(names="--rules", description="Use rules.xml include/deny for consistency") Path rules;
     @Option(names="--json", defaultValue="false") boolean json;
+    @Option(names="--tracked-only", defaultValue="false", description="Only files in the git index (as git ls-files lists them)") boolean trackedOnly;
+    @Option(names="--rev", description="Read the tree of this commit from the object database instead of the working tree (works on bare repos)") String rev;
+    @Option(names="--history", defaultValue="false", description="Time series over the first-parent history of --rev (default HEAD), as CSV or with --json as JSON") boolean history;
+    @Option(names="--by", defaultValue="commit", description="History granularity: commit|day (last commit of each UTC day)") String by;
+    @Option(names="--threads", defaultValue="1", description="Detection threads for a working-tree run (0 = available cores)") int threads;
+    @Option(names="--io-threads", defaultValue="0", description="Files read at once when --threads > 1 (0 = same as --threads)") int ioThreads;
+    @Option(names="--no-cache", defaultValue="false", description="Do not read or write .gittor/linguist-history.json") boolean noCache;
 
     @Override public void run() {
         var cfg = SecretScanner.loadRules(rules);
         var det = new LanguageDetector(cfg);
         det.loadOverrides(languages);
-        LanguageStats.PathFilter filter = det::fileSkipReason;
-        var res = new LanguageStats().compute(repo, det, languages, filter);
-
-        var sizer = new dev.analysis.ProjectSizer();
-        res.totalProjectBytes = sizer.totalBytes(repo, filter::fileSkipReason);
+        LanguageStats.PathFilter filter = det;
+        var stats = new LanguageStats();
+        LanguageStats.Result res;
+        if (history) {
+            if (!by.equals("commit") && !by.equals("day")) throw new IllegalArgumentException("--by must be commit or day");
+            try (Repository r = new FileRepositoryBuilder().readEnvironment().findGitDir(repo.toAbsolutePath().toFile()).setMustExist(true).build()) {
+                var lh = new LanguageHistory(det, filter, r.isBare() ? Path.of("") : repo, noCache ? null : repo);
+                var points = lh.run(r, rev != null ? rev : "HEAD", by.equals("day"));
+                System.out.print(json ? LanguageHistory.toJson(points) : LanguageHistory.toCsv(points));
+                System.err.printf("%d points, trees computed %d, reused %d%n", points.size(), lh.treesComputed, lh.treesReused);
+            } catch (IOException e) { throw new RuntimeException("open repo failed: "+e.getMessage(), e); }
+            return;
+        }
+        if (rev != null) {
+            try (Repository r = new FileRepositoryBuilder().readEnvironment().findGitDir(repo.toAbsolutePath().toFile()).setMustExist(true).build()) {
+                // a bare repo's directory ends in .git, which the deny list would match: use repo-relative paths there
+                res = stats.computeAt(r, rev, r.isBare() ? Path.of("") : repo, det, filter);
+            } catch (IOException e) { throw new RuntimeException("open repo failed: "+e.getMessage(), e); }
+        } else {
+            stats.trackedOnly = trackedOnly;
+            stats.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+            stats.ioThreads = ioThreads;
+            res = stats.compute(repo, det, languages, filter);
 
-        if (res.totalProjectBytes > 0 && !res.percentages.isEmpty()) {
-            res.percentages.forEach((lang, pct) -> {
-                long part = Math.round((pct / 100.0) * res.totalProjectBytes);
-                res.partitions.put(lang, part);
-            });
+            var sizer = new dev.analysis.ProjectSizer();
+            sizer.trackedOnly = trackedOnly;
+            res.partition(sizer.totalBytes(repo, filter));
         }
 
         if (json) {
@@ -44,6 +72,7 @@ public class LinguistCmd implements Runnable {
                 res.partitions.forEach((k,v) -> System.out.printf(" - %-16s %d%n", k, v));
             }
             if (!res.skipped.isEmpty()) System.out.println("Skipped: " + res.skipped.size());
+            if (res.prunedDirs > 0) System.out.println("Pruned directories: " + res.prunedDirs);
         }
     }
 }
\ No newline at end of file
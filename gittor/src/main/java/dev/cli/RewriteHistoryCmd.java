@@ -4,18 +4,48 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import dev.core.HistoryRewriter;
 
 @Command(name="rewrite", description="Rewrite history")
 public class RewriteHistoryCmd implements Runnable {
     @Option(names="--repo", required=true) Path repo;
-    @Option(names="--delete-files", split=",") String[] deleteFiles;
-    @Option(names="--delete-paths", split=",") String[] deletePaths;
+    @Option(names="--delete-files", description="Comma-separated globs; repeatable") String[] deleteFiles;
+    @Option(names="--delete-paths", description="Comma-separated globs; repeatable") String[] deletePaths;
     @Option(names="--strip-blobs-over") String stripOver;
-    @Option(names="--replace-text", split=",") String[] replaceText;
+    @Option(names="--replace-text", description="Comma-separated find=>replace rules; repeatable") String[] replaceText;
     @Option(names="--bfg-parity", defaultValue="false") boolean bfgParity;
     @Option(names="--bfg-jar") Path bfgJar;
     @Option(names="--force-push", defaultValue="false") boolean forcePush;
     @Option(names="--dry-run", defaultValue="false") boolean dryRun;
-    @Override public void run() { new HistoryRewriter().rewrite(repo, deleteFiles, deletePaths, stripOver, replaceText, bfgParity, bfgJar, forcePush, dryRun); }
+    @Option(names="--include-remotes", defaultValue="false", description="Also rewrite refs/remotes/*") boolean includeRemotes;
+    @Option(names="--threads", defaultValue="0", description="Threads blob contents are rewritten on (0 = available cores)") int threads;
+    @Override public void run() {
+        HistoryRewriter rewriter = new HistoryRewriter();
+        rewriter.threads = threads;
+        rewriter.includeRemotes = includeRemotes;
+        rewriter.rewrite(repo, list(deleteFiles), list(deletePaths), stripOver, list(replaceText), bfgParity, bfgJar, forcePush, dryRun);
+    }
+
+    /**
+     * The values split at commas outside {...}, so glob alternatives and regex quantifiers stay whole.
+     * A backslash keeps the character after it, comma or brace, as it is; a '}' with no '{' open is text.
+     */
+    static String[] list(String[] values) {
+        if (values == null) return null;
+        List<String> out = new ArrayList<>();
+        for (String v : values) {
+            int depth = 0, from = 0;
+            for (int i=0;i<v.length();i++) {
+                char c = v.charAt(i);
+                if (c == '\\') i++;
+                else if (c == '{') depth++;
+                else if (c == '}' && depth > 0) depth--;
+                else if (c == ',' && depth == 0) { out.add(v.substring(from, i)); from = i + 1; }
+            }
+            out.add(v.substring(from));
+        }
+        return out.toArray(new String[0]);
+    }
 }
@@ -4,21 +4,41 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
 import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import dev.core.ScanCache;
+import dev.core.ScanReport;
 import dev.core.SecretScanner;
 
 @Command(name="secrets", description="Secret scanning")
-public class SecretsScanCmd implements Runnable {
+public class SecretsScanCmd implements Callable<Integer> {
     @Option(names="--repo", required=true) Path repo;
     @Option(names="--rules") Path rules;
     @Option(names="--install-hook", defaultValue="false") boolean installHook;
-    @Option(names="--json", defaultValue="false") boolean json;
-    @Override public void run() {
+    @Option(names="--json", defaultValue="false", description="Same as --format json") boolean json;
+    @Option(names="--format", defaultValue="text", description="text, json, ndjson or sarif; all but text write findings as they are found") String format;
+    @Option(names="--history", defaultValue="false", description="Scan every blob reachable from any ref instead of the working tree") boolean history;
+    @Option(names="--cache", defaultValue="false", description="Reuse results for unchanged content via .gittor/scan-cache.json") boolean cache;
+    @Option(names="--staged", defaultValue="false", description="Scan only lines added or changed in the index relative to HEAD; exits 1 on findings") boolean staged;
+    @Option(names="--tracked-only", defaultValue="false", description="Only files in the git index (as git ls-files lists them)") boolean trackedOnly;
+    @Option(names="--threads", defaultValue="0", description="Scan threads (0 = available cores)") int threads;
+    @Override public Integer call() {
         if (installHook) {
             SecretScanner.installPreCommitHook(repo);
-            return;
+            return 0;
         }
         var cfg = SecretScanner.loadRules(rules);
-        var res = new SecretScanner(cfg).scanWorkingTree(repo);
-        System.out.println(json ? res.toJson() : res.pretty());
+        var scanner = new SecretScanner(cfg, threads);
+        scanner.report = ScanReport.open(json ? "json" : format, System.out, scanner, repo);
+        scanner.trackedOnly = trackedOnly;
+        if (cache && !staged) scanner.cache = ScanCache.open(repo, scanner.fingerprint());
+        var res = staged ? scanner.scanStaged(repo) : history ? scanner.scanHistory(repo) : scanner.scanWorkingTree(repo);
+        long found = res.findings.size();
+        if (scanner.report != null) {
+            scanner.report.finish(res);
+            found = scanner.report.findings;
+        } else {
+            System.out.println(res.pretty());
+        }
+        return staged && found > 0 ? 1 : 0;
     }
 }
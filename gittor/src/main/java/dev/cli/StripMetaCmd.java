@@ -9,6 +9,8 @@ import java.util.*;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 
+import dev.analysis.MetadataDetector;
+import dev.core.PathRules;
 import dev.core.SecretScanner;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
@@ -36,6 +38,9 @@ public class StripMetaCmd implements Runnable {
     @Option(names="--json", defaultValue="false", description="Emit JSON result")
     boolean json;
 
+    @Option(names="--tracked-only", defaultValue="false", description="Only files in the git index (repo mode)")
+    boolean trackedOnly;
+
     public static class FileResult {
         public String path;
         public boolean changed;
@@ -47,6 +52,7 @@ public class StripMetaCmd implements Runnable {
 
     public static class Result {
         public int processed=0, changed=0, skipped=0, errors=0;
+        public long prunedDirs=0;
         public List<FileResult> files = new ArrayList<>();
     }
 
@@ -62,10 +68,10 @@ public class StripMetaCmd implements Runnable {
 
             if (repo == null) throw new IllegalArgumentException("Specify --input (single file) or --repo (repo mode).");
 
-            var cfg = SecretScanner.loadRules(rules);
+            var cfg = PathRules.of(SecretScanner.loadRules(rules));
             Result res = new Result();
 
-            Files.walk(repo).filter(Files::isRegularFile).forEach(p -> {
+            res.prunedDirs = cfg.walk(repo, trackedOnly, p -> {
                 String reason = fileSkipReason(cfg, p);
                 if (reason != null) {
                     res.skipped++;
@@ -78,7 +84,7 @@ public class StripMetaCmd implements Runnable {
                 }
 
                 try {
-                    String type = sniffTypeByExt(p);
+                    String type = MetadataDetector.typeOf(p);
                     if (type.equals("unknown") || type.equals("text")) {
                         res.processed++;
                         var fr = new FileResult();
@@ -110,8 +116,8 @@ public class StripMetaCmd implements Runnable {
             if (json) {
                 printJson(res);
             } else {
-                System.out.printf("Processed: %d, changed: %d, skipped: %d, errors: %d%n",
-                        res.processed, res.changed, res.skipped, res.errors);
+                System.out.printf("Processed: %d, changed: %d, skipped: %d, errors: %d, pruned dirs: %d%n",
+                        res.processed, res.changed, res.skipped, res.errors, res.prunedDirs);
                 if (!write) System.out.println("(dry-run; use --write to apply)");
             }
         } catch (Exception e) {
@@ -141,36 +147,17 @@ public class StripMetaCmd implements Runnable {
                 fr.originalBytes, fr.newBytes);
     }
 
-    private static String fileSkipReason(SecretScanner.Config cfg, Path p) {
-        String norm = p.toString().replace('\\','/');
-        for (String d : cfg.denyPaths) if (norm.contains(d)) return "deny: " + d;
-        String name = p.getFileName().toString();
-        String ext; int dot = name.lastIndexOf('.');
-        if (dot > 0) ext = name.substring(dot+1).toLowerCase();
-        else if (dot == 0) ext = name.substring(1).toLowerCase(); else ext = name.toLowerCase();
-        boolean allowed = cfg.includeExtensions.contains(ext)
-                || cfg.includeExtensions.contains(name)
-                || cfg.includeExtensions.contains("." + ext);
-        return allowed ? null : "ext not included";
-    }
-
-    private static String sniffTypeByExt(Path p) {
-        String n = p.getFileName().toString().toLowerCase();
-        if (n.endsWith(".pdf")) return "pdf";
-        if (n.endsWith(".jpg") || n.endsWith(".jpeg")) return "jpeg";
-        if (n.endsWith(".png")) return "png";
-        if (n.endsWith(".tif") || n.endsWith(".tiff")) return "tiff";
-        if (n.endsWith(".gif") || n.endsWith(".bmp") || n.endsWith(".webp")) return "image";
-        if (n.endsWith(".txt") || n.endsWith(".md") || n.endsWith(".java") || n.endsWith(".xml") || n.endsWith(".json") || n.endsWith(".yml") || n.endsWith(".yaml"))
-            return "text";
-        return "unknown";
+    private static String fileSkipReason(PathRules cfg, Path p) {
+        String d = cfg.denied(p);
+        if (d != null) return "deny: " + d;
+        return cfg.excludedExtension(p) == null ? null : "ext not included";
     }
 
     private FileResult stripOne(Path in, Path outOrNull, boolean writeMode) throws IOException {
         var fr = new FileResult();
         fr.path = in.toString();
         fr.originalBytes = Files.size(in);
-        String t = sniffTypeByExt(in);
+        String t = MetadataDetector.typeOf(in);
         fr.type = t;
 
         Path out = (outOrNull != null) ? outOrNull : in;
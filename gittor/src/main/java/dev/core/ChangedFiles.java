@@ -0,0 +1,114 @@
+package dev.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+
+/**
+ * Lists the tracked files below a directory whose content differs from a base tree, so a command can
+ * work on a change instead of the whole tree. With a ref the base is its merge base with {@code HEAD}
+ * (what {@code git diff ref...} compares against) and staged as well as unstaged edits count; with
+ * {@code staged} the base is {@code HEAD} and only the index counts. Deleted files are not listed.
+ */
+public final class ChangedFiles {
+    private ChangedFiles() {}
+
+    /** Same contract as {@link PathRules#walk(Path, Predicate, BiConsumer)}, in path order; exactly one of {@code since} and {@code staged} is expected. */
+    public static long walk(Path root, String since, boolean staged, Predicate<Path> prune, BiConsumer<Path, BasicFileAttributes> file) {
+        Path abs = root.toAbsolutePath().normalize();
+        try (Repository repo = new FileRepositoryBuilder().readEnvironment().findGitDir(abs.toFile()).build();
+             ObjectReader reader = repo.newObjectReader();
+             RevWalk rw = new RevWalk(reader);
+             TreeWalk tw = new TreeWalk(repo, reader)) {
+            if (repo.isBare()) throw new IllegalArgumentException("no working tree for " + root);
+            Path top = repo.getWorkTree().toPath().toAbsolutePath().normalize();
+            String prefix = top.equals(abs) ? "" : top.relativize(abs).toString().replace('\\', '/');
+
+            ObjectId base = staged ? repo.resolve(Constants.HEAD + "^{tree}") : baseTree(repo, rw, since);
+            tw.addTree(base != null ? new CanonicalTreeParser(null, reader, base) : new EmptyTreeIterator());
+            int index = tw.addTree(new DirCacheIterator(repo.readDirCache()));
+            int work = -1;
+            if (!staged) {
+                FileTreeIterator wt = new FileTreeIterator(repo);
+                work = tw.addTree(wt);
+                wt.setDirCacheIterator(tw, index);
+            }
+            if (!prefix.isEmpty()) tw.setFilter(PathFilter.create(prefix));
+            tw.setRecursive(true);
+
+            long pruned = 0;
+            Map<String, Boolean> dirs = new HashMap<>();
+            while (tw.next()) {
+                DirCacheIterator dc = tw.getTree(index, DirCacheIterator.class);
+                if (dc == null) continue;
+                FileMode mode = tw.getFileMode(index);
+                if (mode != FileMode.REGULAR_FILE && mode != FileMode.EXECUTABLE_FILE) continue;
+                boolean changed = !tw.idEqual(0, index);
+                if (!changed && work >= 0) {
+                    WorkingTreeIterator wt = tw.getTree(work, WorkingTreeIterator.class);
+                    changed = wt != null && wt.isModified(dc.getDirCacheEntry(), true, reader);
+                }
+                if (!changed) continue;
+
+                String rel = tw.getPathString().substring(prefix.isEmpty() ? 0 : prefix.length() + 1);
+                boolean skip = false;
+                for (int k=rel.indexOf('/'); k >= 0 && !skip; k=rel.indexOf('/', k + 1)) {
+                    String dir = rel.substring(0, k);
+                    Boolean p = dirs.get(dir);
+                    if (p == null) {
+                        dirs.put(dir, p = prune.test(root.resolve(dir)));
+                        if (p) pruned++;
+                    }
+                    skip = p;
+                }
+                if (skip) continue;
+                Path p = root.resolve(rel);
+                try {
+                    file.accept(p, Files.readAttributes(p, BasicFileAttributes.class));
+                } catch (NoSuchFileException deleted) {}
+            }
+            return pruned;
+        } catch (IOException e) { throw new UncheckedIOException("change listing failed: "+e.getMessage(), e); }
+    }
+
+    private static ObjectId baseTree(Repository repo, RevWalk rw, String since) throws IOException {
+        ObjectId ref = repo.resolve(since);
+        if (ref == null) throw new IllegalArgumentException("unknown revision: " + since);
+        RevCommit base = rw.parseCommit(ref);
+        ObjectId head = repo.resolve(Constants.HEAD);
+        if (head != null) {
+            rw.setRevFilter(RevFilter.MERGE_BASE);
+            rw.markStart(base);
+            rw.markStart(rw.parseCommit(head));
+            RevCommit mb = rw.next();
+            if (mb != null) base = mb;
+            rw.reset();
+            rw.setRevFilter(RevFilter.ALL);
+        }
+        return base.getTree().getId();
+    }
+}
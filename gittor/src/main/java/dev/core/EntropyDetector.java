@@ -0,0 +1,118 @@
+package dev.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Shannon-entropy check over raw bytes, equivalent to splitting the decoded text on
+ * {@code [^A-Za-z0-9+/=_-]+} and testing every token of 20+ characters against the threshold.
+ * Tokens are found in one pass; symbol counts and the carry buffer for tokens spanning two
+ * {@link #feed} calls are reused, and entropy comes from a table of {@code c*log2(c)}, so the
+ * only allocation is the sample string of a token that is reported.
+ */
+public final class EntropyDetector {
+    public static final int MIN_TOKEN = 20;
+
+    private static final boolean[] TOKEN = new boolean[256];
+    private static final int TABLE = 4096;
+    private static final double[] C_LOG2_C = new double[TABLE];
+    private static final double LN2 = Math.log(2);
+    static {
+        for (char c='A';c<='Z';c++) TOKEN[c] = true;
+        for (char c='a';c<='z';c++) TOKEN[c] = true;
+        for (char c='0';c<='9';c++) TOKEN[c] = true;
+        for (char c : "+/=_-".toCharArray()) TOKEN[c] = true;
+        for (int c=1;c<TABLE;c++) C_LOG2_C[c] = c * (Math.log(c) / LN2);
+    }
+
+    private final double threshold;
+    private final int maxSample;
+    private final int[] counts = new int[128];
+    private final int[] seen = new int[128];
+    private int distinct;
+    private int n;
+    private byte[] carry = new byte[256];
+    private int carryLen;
+
+    public EntropyDetector(double threshold, int maxSample) {
+        this.threshold = threshold;
+        this.maxSample = maxSample;
+    }
+
+    /** Scans a complete text. */
+    public void scan(byte[] b, int off, int len, Consumer<String> sink) {
+        reset();
+        feed(b, off, len, sink);
+        finish(sink);
+    }
+
+    /** Feeds the next chunk of a text; a token still open at the end of the chunk is carried over. */
+    public void feed(byte[] b, int off, int len, Consumer<String> sink) {
+        int end = off + len;
+        int start = n > 0 ? off : -1;
+        for (int i=off;i<end;i++) {
+            int c = b[i] & 0xff;
+            if (TOKEN[c]) {
+                if (start < 0) start = i;
+                if (counts[c]++ == 0) seen[distinct++] = c;
+                n++;
+            } else if (start >= 0) {
+                endToken(b, start, i, sink);
+                start = -1;
+            }
+        }
+        if (start >= 0) keep(b, start, end);
+    }
+
+    public void finish(Consumer<String> sink) {
+        if (n > 0) endToken(null, 0, 0, sink);
+    }
+
+    public void reset() {
+        for (int i=0;i<distinct;i++) counts[seen[i]] = 0;
+        distinct = 0; n = 0; carryLen = 0;
+    }
+
+    private void keep(byte[] b, int from, int to) {
+        int take = Math.min(to - from, maxSample - carryLen);
+        if (take <= 0) return;
+        if (carryLen + take > carry.length) {
+            byte[] grown = new byte[Math.min(maxSample, Math.max(carry.length * 2, carryLen + take))];
+            System.arraycopy(carry, 0, grown, 0, carryLen);
+            carry = grown;
+        }
+        System.arraycopy(b, from, carry, carryLen, take);
+        carryLen += take;
+    }
+
+    private void endToken(byte[] b, int from, int to, Consumer<String> sink) {
+        if (n >= MIN_TOKEN && entropy() >= threshold) {
+            String sample;
+            if (carryLen == 0) sample = new String(b, from, to - from, StandardCharsets.ISO_8859_1);
+            else {
+                if (b != null) keep(b, from, to);
+                sample = new String(carry, 0, carryLen, StandardCharsets.ISO_8859_1);
+            }
+            sink.accept(sample);
+        }
+        reset();
+    }
+
+    private double entropy() {
+        double sum = 0.0;
+        for (int i=0;i<distinct;i++) {
+            int c = counts[seen[i]];
+            sum += c < TABLE ? C_LOG2_C[c] : c * (Math.log(c) / LN2);
+        }
+        double h = (n < TABLE ? C_LOG2_C[n] / n : Math.log(n) / LN2) - sum / n;
+        // the table form rounds differently from the per-symbol sum; settle near-ties the old way
+        if (Math.abs(h - threshold) < 1e-9) h = exact();
+        return h;
+    }
+
+    private double exact() {
+        double h = 0.0;
+        for (int c : counts) if (c != 0) { double p = (double) c / n; h -= p * (Math.log(p) / Math.log(2)); }
+        return h;
+    }
+}
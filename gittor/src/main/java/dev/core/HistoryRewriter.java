@@ -3,20 +3,61 @@ package dev.core;
 import dev.util.IO;
 import dev.util.Prompt;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.*;
+import org.eclipse.jgit.transport.ReceiveCommand;
 import org.eclipse.jgit.treewalk.*;
-import org.eclipse.jgit.dircache.*;
 import java.nio.file.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class HistoryRewriter {
+    /** Threads blob contents are rewritten on before the commit walk; 0 means one per available core. */
+    public int threads = 0;
+    /** Also rewrite refs/remotes/*; branches, tags and a detached HEAD always are. */
+    public boolean includeRemotes;
 
     public static class Plan {
         public int commitsVisited=0, commitsRewritten=0; public long blobsRemoved=0, bytesSaved=0; public boolean wouldForcePush=false;
-        public String toJson(){ return String.format("{\n  \"commitsVisited\": %d,\n  \"commitsRewritten\": %d,\n  \"blobsRemoved\": %d,\n  \"bytesSaved\": %d,\n  \"wouldForcePush\": %s\n}", commitsVisited, commitsRewritten, blobsRemoved, bytesSaved, wouldForcePush); }
-        public String pretty(){ return "Visited="+commitsVisited+", rewritten="+commitsRewritten+", blobsRemoved="+blobsRemoved+", bytesSaved="+bytesSaved; }
+        public long treesFiltered=0, treesReused=0;
+        public int tagsRewritten=0, refsUpdated=0;
+        public String toJson(){ return String.format("{\n  \"commitsVisited\": %d,\n  \"commitsRewritten\": %d,\n  \"blobsRemoved\": %d,\n  \"bytesSaved\": %d,\n  \"treesFiltered\": %d,\n  \"treesReused\": %d,\n  \"tagsRewritten\": %d,\n  \"refsUpdated\": %d,\n  \"wouldForcePush\": %s\n}", commitsVisited, commitsRewritten, blobsRemoved, bytesSaved, treesFiltered, treesReused, tagsRewritten, refsUpdated, wouldForcePush); }
+        public String pretty(){ return "Visited="+commitsVisited+", rewritten="+commitsRewritten+", blobsRemoved="+blobsRemoved+", bytesSaved="+bytesSaved+", treesFiltered="+treesFiltered+", treesReused="+treesReused+", tagsRewritten="+tagsRewritten+", refsUpdated="+refsUpdated; }
+    }
+
+    /**
+     * One rewrite: its rules, what it has produced so far, and the one reader and inserter every object goes
+     * through. A tree's rewrite depends only on its content and, when --delete-paths is given, on where it
+     * sits; a blob's only on its content. So each distinct tree and blob is filtered once per run, however
+     * many commits contain it. New objects go into a single pack that is written by {@link #flush}; closing
+     * the session without flushing leaves the repository as it was. The inserter and {@link #plan} are
+     * shared by the blob pre-pass threads and only touched while holding the session's lock.
+     */
+    private static final class Session implements AutoCloseable {
+        final Repository repo;
+        final RewriteRules rules;
+        final long sizeLimit;
+        final Plan plan;
+        final boolean dry;
+        final Map<String, ObjectId> trees = new HashMap<>();
+        final Map<ObjectId, ObjectId> blobs = new ConcurrentHashMap<>(); // zeroId: stripped
+        final ObjectInserter oi;
+        final ObjectReader or;
+
+        Session(Repository repo, RewriteRules rules, long sizeLimit, Plan plan, boolean dry) {
+            this.repo = repo; this.rules = rules; this.sizeLimit = sizeLimit; this.plan = plan; this.dry = dry;
+            ObjectDatabase odb = repo.getObjectDatabase();
+            // a loose object per blob, tree and commit is what makes a large rewrite crawl
+            this.oi = odb instanceof ObjectDirectory dir ? dir.newPackInserter() : odb.newInserter();
+            this.or = oi.newReader();
+        }
+
+        void flush() throws IOException { if (!dry) oi.flush(); }
+
+        @Override public void close() { or.close(); oi.close(); }
     }
 
     public void rewrite(Path repoPath, String[] deleteFiles, String[] deletePaths, String stripOver, String[] replaceText, boolean bfgParity, Path bfgJar, boolean forcePush, boolean dryRun) {
@@ -25,47 +66,48 @@ public class HistoryRewriter {
             Repository repo = git.getRepository();
             Plan plan = new Plan();
             long sizeLimit = parseSize(stripOver);
-            Set<String> delFileGlobs = new HashSet<>(); if (deleteFiles!=null) delFileGlobs.addAll(Arrays.asList(deleteFiles));
-            Set<String> delPaths = new HashSet<>(); if (deletePaths!=null) delPaths.addAll(Arrays.asList(deletePaths));
-            Map<String,String> replacements = parseReplace(replaceText);
+            RewriteRules rules = RewriteRules.of(deleteFiles, deletePaths, replaceText);
 
             Path backup = repoPath.resolve(".gittor").resolve("backup-"+IO.ts());
-            if (!dryRun) { IO.copyTree(repoPath, backup); System.out.println("Backup: " + backup); }
+            // earlier backups and the scan and format caches are not part of what is backed up
+            if (!dryRun) { IO.copyTree(repoPath, backup, repoPath.resolve(".gittor")); System.out.println("Backup: " + backup); }
             else System.out.println("[dry-run] would create backup at: " + backup);
 
-            Map<ObjectId,ObjectId> commitMap = new HashMap<>();
-            try (RevWalk walk = new RevWalk(repo)) {
-                ObjectId head = repo.resolve("HEAD");
-                if (head == null) throw new RuntimeException("No HEAD");
-                RevCommit start = walk.parseCommit(head);
-                walk.markStart(start);
+            // every ref's history in one walk, oldest first, so a commit's parents are always mapped before it
+            List<Ref> refs = selectRefs(repo);
+            Map<ObjectId,ObjectId> mapped = new HashMap<>(); // rewritten commits and tags only
+            Map<Ref,ObjectId> updates = new LinkedHashMap<>();
+            try (Session s = new Session(repo, rules, sizeLimit, plan, dryRun); RevWalk walk = new RevWalk(s.or)) {
+                walk.sort(RevSort.TOPO);
+                walk.sort(RevSort.REVERSE, true);
+                List<RevCommit> starts = new ArrayList<>();
+                for (Ref ref : refs) {
+                    if (walk.peel(walk.parseAny(ref.getObjectId())) instanceof RevCommit c) { walk.markStart(c); starts.add(c); }
+                }
+                if (starts.isEmpty()) throw new RuntimeException("No commits to rewrite");
+                prepareBlobs(s, starts);
                 for (RevCommit c : walk) {
                     plan.commitsVisited++;
-                    ObjectId newTree = filterTree(repo, c.getTree(), delFileGlobs, delPaths, sizeLimit, replacements, plan, dryRun);
-                    if (!newTree.equals(c.getTree().getId())) {
-                        ObjectId[] newParents = new ObjectId[c.getParentCount()];
-                        for (int i=0;i<c.getParentCount();i++) {
-                            ObjectId p = c.getParent(i);
-                            newParents[i] = commitMap.getOrDefault(p, p);
-                        }
-                        ObjectId newCommit = buildCommit(repo, newTree, newParents, c, dryRun);
-                        commitMap.put(c.getId(), newCommit); plan.commitsRewritten++;
-                    } else commitMap.put(c.getId(), c.getId());
-                }
-            }
-
-            if (!dryRun) {
-                for (Ref ref : repo.getRefDatabase().getRefsByPrefix(Constants.R_HEADS)) {
-                    ObjectId oldId = ref.getObjectId();
-                    ObjectId newId = commitMap.getOrDefault(oldId, oldId);
-                    if (!newId.equals(oldId)) {
-                        RefUpdate ru = repo.updateRef(ref.getName());
-                        ru.setNewObjectId(newId); ru.setForceUpdate(true); ru.update();
+                    ObjectId newTree = filterTree(c.getTree(), "", s);
+                    boolean changed = !newTree.equals(c.getTree().getId());
+                    ObjectId[] newParents = new ObjectId[c.getParentCount()];
+                    for (int i=0;i<c.getParentCount();i++) {
+                        ObjectId p = c.getParent(i);
+                        newParents[i] = mapped.getOrDefault(p, p);
+                        changed |= !newParents[i].equals(p);
                     }
+                    if (changed) { mapped.put(c.copy(), buildCommit(s, newTree, newParents, c)); plan.commitsRewritten++; }
                 }
-            } else {
-                System.out.println("[dry-run] would update branch refs where rewritten");
+                for (Ref ref : refs) {
+                    ObjectId newId = rewriteTarget(s, walk, mapped, ref.getObjectId());
+                    if (!newId.equals(ref.getObjectId())) updates.put(ref, newId);
+                }
+                s.flush();
             }
+            plan.refsUpdated = updates.size();
+
+            if (!dryRun) updateRefs(repo, updates);
+            else System.out.println("[dry-run] would update " + updates.size() + " of " + refs.size() + " refs");
 
             plan.wouldForcePush = forcePush;
             System.out.println("Rewrite plan: " + (dryRun ? plan.toJson() : plan.pretty()));
@@ -78,73 +120,192 @@ public class HistoryRewriter {
         } catch (Exception e) { throw new RuntimeException("Rewrite failed: "+e.getMessage(), e); }
     }
 
-    private ObjectId buildCommit(Repository repo, ObjectId newTree, ObjectId[] parents, RevCommit old, boolean dry) throws IOException {
-        if (dry) return old.getId();
-        try (ObjectInserter oi = repo.newObjectInserter()) {
-            CommitBuilder cb = new CommitBuilder();
-            cb.setTreeId(newTree); cb.setParentIds(parents);
-            cb.setAuthor(old.getAuthorIdent()); cb.setCommitter(old.getCommitterIdent()); cb.setMessage(old.getFullMessage());
-            ObjectId id = oi.insert(cb); oi.flush(); return id;
-        }
+    /** Branches, tags, remote-tracking refs if asked for, and HEAD when it is detached. */
+    private List<Ref> selectRefs(Repository repo) throws IOException {
+        RefDatabase db = repo.getRefDatabase();
+        List<Ref> refs = new ArrayList<>();
+        String[] prefixes = includeRemotes ? new String[]{Constants.R_HEADS, Constants.R_TAGS, Constants.R_REMOTES} : new String[]{Constants.R_HEADS, Constants.R_TAGS};
+        for (Ref r : db.getRefsByPrefix(prefixes)) if (!r.isSymbolic() && r.getObjectId() != null) refs.add(r);
+        Ref head = db.exactRef(Constants.HEAD);
+        if (head != null && !head.isSymbolic() && head.getObjectId() != null) refs.add(head);
+        return refs;
     }
 
-    private ObjectId filterTree(Repository repo, RevTree tree, Set<String> delFileGlobs, Set<String> delPathSet, long sizeLimit, Map<String,String> replacements, Plan plan, boolean dry) throws IOException {
-        try (TreeWalk tw = new TreeWalk(repo)) {
-            tw.addTree(tree); tw.setRecursive(false);
-            DirCache newIdx = DirCache.newInCore(); DirCacheBuilder b = newIdx.builder();
-            filterRecursive(repo, tw, "", delFileGlobs, delPathSet, sizeLimit, replacements, plan, b, dry);
-            b.finish(); try (ObjectInserter oi = repo.newObjectInserter()) {
-                ObjectId newTree = newIdx.writeTree(oi); if (!dry) oi.flush(); return newTree;
+    /**
+     * What a ref at {@code id} points at after the rewrite. A tree is filtered like a commit's. An annotated
+     * tag over a rewritten object is written again over the new one, with the same name, tagger and message;
+     * a signature cannot carry over.
+     */
+    private ObjectId rewriteTarget(Session s, RevWalk walk, Map<ObjectId,ObjectId> mapped, ObjectId id) throws IOException {
+        ObjectId done = mapped.get(id);
+        if (done != null) return done;
+        RevObject o = walk.parseAny(id);
+        if (o instanceof RevTree) return filterTree(o, "", s);
+        if (!(o instanceof RevTag t)) return id;
+        ObjectId target = rewriteTarget(s, walk, mapped, t.getObject());
+        if (target.equals(t.getObject())) return id;
+        TagBuilder tb = new TagBuilder();
+        tb.setObjectId(target, t.getObject().getType());
+        tb.setTag(t.getTagName()); tb.setTagger(t.getTaggerIdent()); tb.setMessage(t.getFullMessage());
+        ObjectId newTag = s.dry ? s.oi.idFor(Constants.OBJ_TAG, tb.build()) : s.oi.insert(tb);
+        mapped.put(t.copy(), newTag); s.plan.tagsRewritten++;
+        return newTag;
+    }
+
+    /** One batch for all refs, so thousands of branches do not mean thousands of packed-refs rewrites; a detached HEAD on its own. */
+    private void updateRefs(Repository repo, Map<Ref,ObjectId> updates) throws IOException {
+        BatchRefUpdate batch = repo.getRefDatabase().newBatchUpdate();
+        batch.setAllowNonFastForwards(true);
+        for (var e : updates.entrySet()) {
+            Ref ref = e.getKey();
+            if (ref.getName().equals(Constants.HEAD)) {
+                RefUpdate ru = repo.updateRef(Constants.HEAD, true);
+                ru.setNewObjectId(e.getValue()); ru.setForceUpdate(true);
+                RefUpdate.Result r = ru.update();
+                if (r != RefUpdate.Result.FORCED && r != RefUpdate.Result.NEW && r != RefUpdate.Result.FAST_FORWARD) throw new IOException("could not update HEAD: " + r);
+            } else {
+                batch.addCommand(new ReceiveCommand(ref.getObjectId(), e.getValue(), ref.getName(), ReceiveCommand.Type.UPDATE_NONFASTFORWARD));
             }
         }
+        if (batch.getCommands().isEmpty()) return;
+        try (RevWalk rw = new RevWalk(repo)) { batch.execute(rw, NullProgressMonitor.INSTANCE); }
+        for (ReceiveCommand c : batch.getCommands()) {
+            if (c.getResult() != ReceiveCommand.Result.OK) throw new IOException("could not update " + c.getRefName() + ": " + c.getResult() + (c.getMessage() != null ? " " + c.getMessage() : ""));
+        }
     }
 
-    private void filterRecursive(Repository repo, TreeWalk tw, String prefix, Set<String> delFileGlobs, Set<String> delPathSet, long sizeLimit, Map<String,String> replacements, Plan plan, DirCacheBuilder b, boolean dry) throws IOException {
-        while (tw.next()) {
-            String name = tw.getNameString();
+    /** The rewritten commit; in a dry run only its id, so the plan still sees which commits and refs would change. */
+    private ObjectId buildCommit(Session s, ObjectId newTree, ObjectId[] parents, RevCommit old) throws IOException {
+        CommitBuilder cb = new CommitBuilder();
+        cb.setTreeId(newTree); cb.setParentIds(parents);
+        cb.setAuthor(old.getAuthorIdent()); cb.setCommitter(old.getCommitterIdent()); cb.setMessage(old.getFullMessage());
+        return s.dry ? s.oi.idFor(Constants.OBJ_COMMIT, cb.build()) : s.oi.insert(cb);
+    }
+
+    private static final ObjectId EMPTY_TREE = new ObjectInserter.Formatter().idFor(Constants.OBJ_TREE, new byte[0]);
+
+    /** Rewrites one tree bottom-up; directories left empty are dropped, as git has no empty directories. */
+    private ObjectId filterTree(AnyObjectId tree, String prefix, Session s) throws IOException {
+        String key = !s.rules.pathDependent() ? tree.name() : tree.name() + " " + prefix;
+        ObjectId done = s.trees.get(key);
+        if (done != null) { s.plan.treesReused++; return done; }
+        TreeFormatter tf = new TreeFormatter();
+        for (CanonicalTreeParser p = new CanonicalTreeParser(null, s.or, tree); !p.eof(); p.next()) {
+            String name = p.getEntryPathString();
             String full = prefix.isEmpty()? name : prefix + "/" + name;
-            if (tw.isSubtree()) {
-                tw.enterSubtree();
-                boolean dropDir = delPathSet.stream().anyMatch(p -> match(full, p));
-                if (dropDir) { skipSubtree(tw); continue; }
-                CanonicalTreeParser p = new CanonicalTreeParser(null, repo.newObjectReader(), tw.getObjectId(0));
-                TreeWalk sub = new TreeWalk(repo); sub.addTree(p); sub.setRecursive(false);
-                filterRecursive(repo, sub, full, delFileGlobs, delPathSet, sizeLimit, replacements, plan, b, dry);
+            FileMode mode = p.getEntryFileMode();
+            if (mode == FileMode.TREE) {
+                if (s.rules.deletesDir(full)) continue;
+                ObjectId sub = filterTree(p.getEntryObjectId(), full, s);
+                if (!sub.equals(EMPTY_TREE)) tf.append(name, mode, sub);
                 continue;
             }
-            ObjectId blobId = tw.getObjectId(0);
-            boolean drop = delFileGlobs.stream().anyMatch(g -> match(name, g)) || delPathSet.stream().anyMatch(p -> match(full, p));
-            byte[] data = null;
-            if (!drop || sizeLimit>0 || !replacements.isEmpty()) {
-                try (ObjectReader or = repo.newObjectReader()) { data = or.open(blobId, Constants.OBJ_BLOB).getBytes(); }
-            }
-            if (sizeLimit > 0 && data.length > sizeLimit) { drop=true; plan.blobsRemoved++; plan.bytesSaved += data.length; }
-            if (drop) continue;
-            if (!replacements.isEmpty() && looksText(data)) {
-                String s = new String(data); String out = s;
-                for (var e : replacements.entrySet()) out = out.replaceAll(e.getKey(), e.getValue());
-                if (!out.equals(s)) { data = out.getBytes(); if (out.length() < s.length()) plan.bytesSaved += (s.length()-out.length()); }
+            if (mode == FileMode.GITLINK) { tf.append(name, mode, p.getEntryObjectId()); continue; }
+            if (s.rules.deletesFile(name, full)) continue;
+            ObjectId blob = filterBlob(p.getEntryObjectId(), s, s.or);
+            if (blob != null) tf.append(name, mode, blob);
+        }
+        ObjectId newTree = s.dry ? s.oi.idFor(tf) : s.oi.insert(tf);
+        s.trees.put(key, newTree);
+        s.plan.treesFiltered++;
+        return newTree;
+    }
+
+    /**
+     * Phase one of a rewrite that replaces text: every distinct blob reachable from {@code starts} is
+     * rewritten on {@link #threads} threads, so the commit walk after it only looks blobs up. The listing
+     * and each thread read through repository readers of their own: they only need objects that were there
+     * before the rewrite, and the inserter's reader may not be used while another thread inserts. Blobs
+     * under a path the rules delete are not read; one that is also kept somewhere else is rewritten by
+     * the walk when it gets there.
+     */
+    private void prepareBlobs(Session s, List<RevCommit> starts) throws IOException {
+        int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        // listing the blobs costs a pass over every tree; that only pays when there is content to rewrite,
+        // stripping by size reads nothing but object headers
+        if (n == 1 || !s.rules.replacesText()) return;
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        Queue<ObjectReader> readers = new ConcurrentLinkedQueue<>();
+        ThreadLocal<ObjectReader> reader = ThreadLocal.withInitial(() -> { ObjectReader r = s.repo.newObjectReader(); readers.add(r); return r; });
+        Semaphore window = new Semaphore(4 * n);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try (ObjectWalk ow = new ObjectWalk(s.repo)) {
+            for (RevCommit c : starts) ow.markStart(ow.parseCommit(c));
+            while (ow.next() != null) {}
+            for (RevObject o; (o = ow.nextObject()) != null && failure.get() == null; ) {
+                String full = ow.getPathString();
+                if (o.getType() == Constants.OBJ_TREE) {
+                    if (full != null && !full.isEmpty() && s.rules.deletesDir(full)) ow.skipTree();
+                    continue;
+                }
+                if (o.getType() != Constants.OBJ_BLOB) continue;
+                String name = full.substring(full.lastIndexOf('/') + 1);
+                if (s.rules.deletesFile(name, full)) continue;
+                ObjectId blob = o.copy();
+                window.acquireUninterruptibly();
+                pool.execute(() -> {
+                    try { filterBlob(blob, s, reader.get()); }
+                    catch (Throwable t) { failure.compareAndSet(null, t); }
+                    finally { window.release(); }
+                });
             }
-            DirCacheEntry dce = new DirCacheEntry(full);
-            dce.setFileMode(tw.getFileMode(0));
-            if (!dry) {
-                try (ObjectInserter oi = repo.newObjectInserter()) {
-                    ObjectId nb = oi.insert(Constants.OBJ_BLOB, data); oi.flush(); dce.setObjectId(nb);
+            window.acquireUninterruptibly(4 * n);
+        } finally {
+            pool.shutdownNow();
+            readers.forEach(ObjectReader::close);
+        }
+        if (failure.get() != null) throw new IOException("blob pre-pass failed: "+failure.get().getMessage(), failure.get());
+    }
+
+    /** The blob to keep in place of {@code blobId}, or null if it is stripped for its size; {@code or} is the calling thread's reader. */
+    private ObjectId filterBlob(ObjectId blobId, Session s, ObjectReader or) throws IOException {
+        if (s.sizeLimit <= 0 && !s.rules.replacesText()) return blobId;
+        ObjectId done = s.blobs.get(blobId);
+        if (done != null) return done.equals(ObjectId.zeroId()) ? null : done;
+        ObjectId nb = blobId;
+        long size = s.sizeLimit > 0 ? or.getObjectSize(blobId, Constants.OBJ_BLOB) : -1;
+        byte[] data;
+        if (size > s.sizeLimit) {
+            synchronized (s) { s.plan.blobsRemoved++; s.plan.bytesSaved += size; }
+            nb = null;
+        } else if (s.rules.replacesText() && (data = textContent(blobId, or)) != null) {
+            byte[] out = s.rules.replace(data);
+            if (out != null) {
+                synchronized (s) {
+                    if (out.length < data.length) s.plan.bytesSaved += (data.length-out.length);
+                    nb = s.dry ? s.oi.idFor(Constants.OBJ_BLOB, out) : s.oi.insert(Constants.OBJ_BLOB, out);
                 }
-            } else dce.setObjectId(blobId);
-            b.add(dce);
+            }
+        }
+        s.blobs.put(blobId, nb == null ? ObjectId.zeroId() : nb);
+        return nb;
+    }
+
+    /**
+     * The content of a blob, or null if it looks binary. A blob the reader will not hand over as one array
+     * (core.streamFileThreshold) is read through its stream; of a binary one only the head is inflated.
+     */
+    private byte[] textContent(ObjectId blobId, ObjectReader or) throws IOException {
+        ObjectLoader ol = or.open(blobId, Constants.OBJ_BLOB);
+        if (!ol.isLarge()) { byte[] data = ol.getCachedBytes(); return looksText(data) ? data : null; }
+        try (ObjectStream in = ol.openStream()) {
+            byte[] head = in.readNBytes(4096);
+            if (!looksText(head)) return null;
+            if (in.getSize() > Integer.MAX_VALUE - 8) {
+                System.err.println("Not replacing text in "+blobId.name()+": "+in.getSize()+" bytes is too large");
+                return null;
+            }
+            byte[] data = Arrays.copyOf(head, (int) in.getSize());
+            in.readNBytes(data, head.length, data.length - head.length);
+            return data;
         }
     }
 
     private boolean looksText(byte[] data){ int limit=Math.min(data.length,4096); for (int i=0;i<limit;i++) if (data[i]==0) return false; return true; }
-    private void skipSubtree(TreeWalk tw) throws IOException { int d=tw.getDepth(); while (tw.next() && tw.getDepth()>d){} }
-    private boolean match(String s, String glob){ String rx=glob.replace(".", "\\.").replace("*",".*").replace("?","."); return s.matches(rx); }
 
     private long parseSize(String s){ if (s==null||s.isBlank()) return -1; String u=s.trim().toUpperCase(); long m=1; if(u.endsWith("KB")){m=1024;u=u.substring(0,u.length()-2);} else if(u.endsWith("MB")){} return parseSize2(s); }
     private long parseSize2(String s){ try{ String u=s.trim().toUpperCase(); long mult=1; if(u.endsWith("KB")){mult=1024; u=u.substring(0,u.length()-2);} else if(u.endsWith("MB")){mult=1024*1024; u=u.substring(0,u.length()-2);} else if(u.endsWith("GB")){mult=1024L*1024*1024; u=u.substring(0,u.length()-2);} return Long.parseLong(u)*mult; }catch(Exception e){ return -1; } }
 
-    private Map<String,String> parseReplace(String[] arr){ Map<String,String> m=new HashMap<>(); if(arr==null) return m; for(String kv: arr){ int i=kv.indexOf("=>"); if(i>0) m.put(kv.substring(0,i), kv.substring(i+2)); } return m; }
-
     private void runBfg(Path repo, String[] deleteFiles, String[] deletePaths, String stripOver, String[] replaceText, Path bfgJar, boolean dryRun) {
         if (bfgJar == null) throw new IllegalArgumentException("--bfg-jar is required for --bfg-parity");
         try {
@@ -0,0 +1,114 @@
+package dev.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import dev.util.AhoCorasick;
+
+/**
+ * The deny-path and extension filter from rules.xml, compiled once and shared by every command.
+ * A path is denied when its normalized form contains a deny entry; the first entry in list order is
+ * reported. Since every path below a directory starts with "dir/", a directory whose "dir/" is denied
+ * only holds denied files, and {@link #walk} does not descend into it.
+ */
+public final class PathRules {
+    private final List<String> deny;
+    private final Set<String> extensions;
+    private final AhoCorasick denyMatcher;
+
+    private PathRules(SecretScanner.Config cfg) {
+        this.deny = List.copyOf(cfg.denyPaths);
+        this.extensions = new HashSet<>(cfg.includeExtensions);
+        AhoCorasick ac = new AhoCorasick();
+        for (String d : deny) {
+            if (d.isEmpty() || d.chars().anyMatch(c -> c >= 128)) { ac = null; break; }
+            ac.add(d, false);
+        }
+        this.denyMatcher = ac != null && ac.size() > 0 ? ac.build() : null;
+    }
+
+    public static PathRules of(SecretScanner.Config cfg) { return new PathRules(cfg); }
+
+    /** The first deny entry contained in {@code p}, or null. */
+    public String denied(Path p) {
+        return denied(p.toString().replace('\\','/'));
+    }
+
+    public String denied(String norm) {
+        if (denyMatcher == null) {
+            for (String d : deny) if (norm.contains(d)) return d;
+            return null;
+        }
+        int[] first = {Integer.MAX_VALUE};
+        denyMatcher.search(norm, (start, key) -> { if (key < first[0]) first[0] = key; });
+        return first[0] == Integer.MAX_VALUE ? null : deny.get(first[0]);
+    }
+
+    /** True when everything below {@code dir} is denied. */
+    public boolean prunes(Path dir) {
+        String norm = dir.toString().replace('\\','/');
+        return denied(norm.endsWith("/") ? norm : norm + "/") != null;
+    }
+
+    /** The extension as reported in skip reasons ("ext", or ".name" for dot files) when it is not included, else null. */
+    public String excludedExtension(Path p) {
+        String name = p.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String ext;
+        if (dot > 0) ext = name.substring(dot + 1).toLowerCase();
+        else if (dot == 0) ext = name.substring(1).toLowerCase();
+        else ext = name.toLowerCase();
+        boolean allowed = extensions.contains(ext) || extensions.contains(name) || extensions.contains("." + ext);
+        return allowed ? null : (dot == 0 ? "." + ext : ext);
+    }
+
+    /** Walks regular files below root in {@code Files.walk} order, skipping pruned directories; returns how many were pruned. */
+    public long walk(Path root, Consumer<Path> file) {
+        return walk(root, this::prunes, file);
+    }
+
+    /** {@link #walk(Path, Consumer)}, or the files git tracks below root when {@code trackedOnly} is set. */
+    public long walk(Path root, boolean trackedOnly, Consumer<Path> file) {
+        return walk(root, trackedOnly, this::prunes, (p, attrs) -> file.accept(p));
+    }
+
+    public static long walk(Path root, boolean trackedOnly, Predicate<Path> prune, BiConsumer<Path, BasicFileAttributes> file) {
+        return trackedOnly ? TrackedFiles.walk(root, prune, file) : walk(root, prune, file);
+    }
+
+    public static long walk(Path root, Predicate<Path> prune, Consumer<Path> file) {
+        return walk(root, prune, (p, attrs) -> file.accept(p));
+    }
+
+    /** As above, also passing the attributes the walk already read (those of the link itself for symlinks). */
+    public static long walk(Path root, Predicate<Path> prune, BiConsumer<Path, BasicFileAttributes> file) {
+        long[] pruned = {0};
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(root) && prune.test(dir)) {
+                        pruned[0]++;
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() || (attrs.isSymbolicLink() && Files.isRegularFile(p))) file.accept(p, attrs);
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override public FileVisitResult visitFileFailed(Path p, IOException e) throws IOException {
+                    // listed, then gone before it could be visited (e.g. a temp file renamed away)
+                    if (e instanceof NoSuchFileException) return FileVisitResult.CONTINUE;
+                    throw e;
+                }
+            });
+        } catch (IOException e) { throw new UncheckedIOException("walk failed: "+e.getMessage(), e); }
+        return pruned[0];
+    }
+}
@@ -0,0 +1,365 @@
+package dev.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import dev.util.AhoCorasick;
+
+/**
+ * The --delete-files, --delete-paths and --replace-text rules of a history rewrite, compiled once per run.
+ *
+ * <p>Globs: {@code *} matches any run of characters but '/', {@code **} any run including '/', {@code ?}
+ * one character but '/', {@code [abc]} and {@code [!abc]} a class, {@code {a,b}} either alternative, and
+ * a backslash quotes the next character. --delete-files globs match a file's name. --delete-paths globs
+ * match the path from the repository root of a directory, which drops everything in it, or of a file; one
+ * ending in '/' only matches directories. Plain names are looked up in a set, {@code *.ext} and
+ * {@code dir/*} are suffix and prefix checks, and the rest are regexes, tried only on paths
+ * that start and end with the glob's literal text.
+ *
+ * <p>Replacements are {@code find=>replace}, find a regex and replace as in {@link Matcher#replaceAll}.
+ * They are applied in one pass: the leftmost match wins, and of matches starting at the same place the
+ * rule given first. When every find is plain ASCII text and no replace uses {@code $} or {@code \}, blobs
+ * are searched as bytes with Aho-Corasick and never decoded. Finds with backreferences cannot share one
+ * pattern; then each rule runs over the output of the one before, as they used to. Named groups are
+ * renamed per rule in the shared pattern, so two finds may use the same name.
+ */
+public final class RewriteRules {
+    private final Globs names, paths, dirs;
+    private final List<Rule> rules = new ArrayList<>();
+    private final Pattern combined;
+    private final AhoCorasick literals;
+    private final byte[][] literalReplacements;
+
+    private RewriteRules(String[] deleteFiles, String[] deletePaths, String[] replaceText) {
+        List<String> p = new ArrayList<>(), d = new ArrayList<>();
+        if (deletePaths != null) for (String g : deletePaths) {
+            if (g.endsWith("/") && g.length() > 1) d.add(g.substring(0, g.length() - 1)); else p.add(g);
+        }
+        names = new Globs(deleteFiles == null ? List.of() : Arrays.asList(deleteFiles));
+        paths = new Globs(p);
+        dirs = new Globs(d);
+
+        if (replaceText != null) for (String kv : replaceText) {
+            int i = kv.indexOf("=>");
+            if (i > 0) rules.add(new Rule(kv.substring(0, i), kv.substring(i + 2)));
+        }
+        boolean literal = !rules.isEmpty();
+        boolean shared = true;
+        StringBuilder rx = new StringBuilder();
+        int base = 1;
+        for (int k=0;k<rules.size();k++) {
+            Rule r = rules.get(k);
+            literal &= r.literal;
+            shared &= !r.backreferences;
+            if (rx.length() > 0) rx.append('|');
+            r.names = "r" + k + "n";
+            rx.append('(').append(renameGroups(r.find.pattern(), r.names)).append(')');
+            r.base = base;
+            base += r.groups + 1;
+        }
+        combined = shared && rules.size() > 1 ? Pattern.compile(rx.toString()) : null;
+        if (literal) {
+            literals = new AhoCorasick();
+            literalReplacements = new byte[rules.size()][];
+            for (int k=0;k<rules.size();k++) {
+                literals.add(rules.get(k).find.pattern(), false);
+                literalReplacements[k] = rules.get(k).replace.getBytes(Charset.defaultCharset());
+            }
+            literals.build();
+        } else {
+            literals = null;
+            literalReplacements = null;
+        }
+    }
+
+    public static RewriteRules of(String[] deleteFiles, String[] deletePaths, String[] replaceText) {
+        return new RewriteRules(deleteFiles, deletePaths, replaceText);
+    }
+
+    /** Whether a file called {@code name} at {@code path} is dropped. */
+    public boolean deletesFile(String name, String path) { return names.matches(name) || paths.matches(path); }
+
+    /** Whether the directory at {@code path} is dropped with everything in it. */
+    public boolean deletesDir(String path) { return paths.matches(path) || dirs.matches(path); }
+
+    /** Whether what a tree becomes depends on where it sits, not only on its content. */
+    public boolean pathDependent() { return !paths.isEmpty() || !dirs.isEmpty(); }
+
+    public boolean replacesText() { return !rules.isEmpty(); }
+
+    /** {@code data} with the replacements applied, or null if nothing matched. */
+    public byte[] replace(byte[] data) {
+        if (literals != null) return replaceLiterals(data);
+        String in = new String(data);
+        String out = in;
+        if (combined != null) {
+            // a rule's own pattern finds its first match much faster than the alternation of all of them,
+            // which cannot search for a literal start; most blobs match no rule, many only one
+            int first = -1, hit = -1;
+            for (int k=0;k<rules.size();k++) {
+                Matcher m = rules.get(k).find.matcher(in);
+                if (!m.find()) continue;
+                hit = hit < 0 ? k : Integer.MAX_VALUE;
+                if (first < 0 || m.start() < first) first = m.start();
+            }
+            if (hit < 0) return null;
+            out = hit < rules.size() ? replace(rules.get(hit).find, in, List.of(rules.get(hit)), first)
+                    : replace(combined, in, rules, first);
+        } else for (Rule r : rules) {
+            String next = replace(r.find, out, List.of(r), 0);
+            if (next != null) out = next;
+        }
+        return out == null || out.equals(in) ? null : out.getBytes();
+    }
+
+    /** One pass of {@code p} over {@code in} from {@code from} on; the rule whose group matched picks the replacement. */
+    private static String replace(Pattern p, String in, List<Rule> rules, int from) {
+        Matcher m = p.matcher(in);
+        if (!m.find(from)) return null;
+        StringBuilder sb = new StringBuilder(in.length());
+        int last = 0;
+        do {
+            sb.append(in, last, m.start());
+            Rule r = rules.get(0);
+            int base = 0;
+            if (rules.size() > 1) {
+                for (Rule x : rules) if (m.start(x.base) >= 0) { r = x; break; }
+                base = r.base;
+            }
+            r.expand(m, base, sb);
+            last = m.end();
+        } while (m.find());
+        return sb.append(in, last, in.length()).toString();
+    }
+
+    private byte[] replaceLiterals(byte[] data) {
+        int n = rules.size();
+        long[][] hits = {new long[16]};
+        int[] count = {0};
+        // start * n + key sorts by start, then by rule order
+        literals.search(new Latin1(data), (start, key) -> {
+            if (count[0] == hits[0].length) hits[0] = Arrays.copyOf(hits[0], count[0] * 2);
+            hits[0][count[0]++] = (long) start * n + key;
+        });
+        if (count[0] == 0) return null;
+        Arrays.sort(hits[0], 0, count[0]);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        int last = 0;
+        for (int i=0;i<count[0];i++) {
+            int start = (int) (hits[0][i] / n), key = (int) (hits[0][i] % n);
+            if (start < last) continue;
+            out.write(data, last, start - last);
+            out.writeBytes(literalReplacements[key]);
+            last = start + rules.get(key).find.pattern().length();
+        }
+        out.write(data, last, data.length - last);
+        byte[] b = out.toByteArray();
+        return Arrays.equals(b, data) ? null : b;
+    }
+
+    /**
+     * {@code rx} with {@code prefix} put before the name of every named group it defines. Escapes,
+     * {@code \Q...\E} and character classes are copied as they are, and {@code (?<=} and {@code (?<!}
+     * are lookbehinds, not names. References by name ({@code \k<name>}) are left alone: finds that use
+     * them never share a pattern.
+     */
+    private static String renameGroups(String rx, String prefix) {
+        StringBuilder sb = new StringBuilder(rx.length() + 16);
+        int classes = 0;
+        for (int i=0;i<rx.length();i++) {
+            char c = rx.charAt(i);
+            if (c == '\\' && i + 1 < rx.length()) {
+                int end = i + 2;
+                if (rx.charAt(i + 1) == 'Q') {
+                    end = rx.indexOf("\\E", i + 2);
+                    end = end < 0 ? rx.length() : end + 2;
+                }
+                sb.append(rx, i, end);
+                i = end - 1;
+            } else if (classes > 0) {
+                if (c == '[') classes++;
+                else if (c == ']') classes--;
+                sb.append(c);
+            } else if (c == '[') {
+                classes++;
+                sb.append(c);
+            } else if (rx.startsWith("(?<", i) && i + 3 < rx.length() && Character.isLetter(rx.charAt(i + 3))) {
+                sb.append("(?<").append(prefix);
+                i += 2;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Bytes as chars 0-255, so ASCII keys can be searched for without decoding. */
+    private record Latin1(byte[] b) implements CharSequence {
+        @Override public int length() { return b.length; }
+        @Override public char charAt(int i) { return (char) (b[i] & 0xff); }
+        @Override public CharSequence subSequence(int from, int to) { return new String(b, from, to - from, StandardCharsets.ISO_8859_1); }
+        @Override public String toString() { return new String(b, StandardCharsets.ISO_8859_1); }
+    }
+
+    /** One --replace-text rule, its replacement split into text and group references. */
+    private static final class Rule {
+        final Pattern find;
+        final String replace;
+        final int groups;
+        final boolean literal, backreferences;
+        final List<Object> parts = new ArrayList<>(); // String text, Integer group, or String[]{name}
+        int base;
+        String names; // prefix of this rule's group names in the shared pattern
+
+        Rule(String find, String replace) {
+            this.find = Pattern.compile(find);
+            this.replace = replace;
+            this.groups = this.find.matcher("").groupCount();
+            this.literal = !find.isEmpty() && find.chars().allMatch(c -> c < 128 && ".^$|?*+()[]{}\\".indexOf(c) < 0)
+                    && replace.indexOf('$') < 0 && replace.indexOf('\\') < 0;
+            this.backreferences = find.matches("(?s).*(?<!\\\\)(\\\\\\\\)*\\\\([1-9]|k<).*");
+            StringBuilder text = new StringBuilder();
+            for (int i=0;i<replace.length();i++) {
+                char c = replace.charAt(i);
+                if (c == '\\') {
+                    if (++i == replace.length()) throw new IllegalArgumentException("bad replacement for "+find+": character to be escaped is missing");
+                    text.append(replace.charAt(i));
+                } else if (c != '$') {
+                    text.append(c);
+                } else {
+                    if (text.length() > 0) { parts.add(text.toString()); text.setLength(0); }
+                    if (++i == replace.length()) throw new IllegalArgumentException("bad replacement for "+find+": group reference missing");
+                    if (replace.charAt(i) == '{') {
+                        int end = replace.indexOf('}', i);
+                        if (end < 0) throw new IllegalArgumentException("bad replacement for "+find+": unclosed group name");
+                        parts.add(new String[]{replace.substring(i + 1, end)});
+                        i = end;
+                        continue;
+                    }
+                    // as Matcher does: take digits while the number still names a group
+                    int n = replace.charAt(i) - '0';
+                    if (n < 0 || n > 9) throw new IllegalArgumentException("bad replacement for "+find+": illegal group reference");
+                    while (i + 1 < replace.length() && Character.isDigit(replace.charAt(i + 1)) && n * 10 + (replace.charAt(i + 1) - '0') <= groups) {
+                        n = n * 10 + (replace.charAt(++i) - '0');
+                    }
+                    if (n > groups) throw new IllegalArgumentException("bad replacement for "+find+": no group "+n);
+                    parts.add(n);
+                }
+            }
+            if (text.length() > 0) parts.add(text.toString());
+        }
+
+        /** Appends the replacement for the match of this rule in {@code m}, whose group {@code base} wraps the rule (0: the rule's own matcher). */
+        void expand(Matcher m, int base, StringBuilder sb) {
+            for (Object part : parts) {
+                String s = part instanceof String t ? t
+                        : part instanceof Integer g ? m.group(base + g)
+                        : m.group(base == 0 ? ((String[]) part)[0] : names + ((String[]) part)[0]);
+                if (s != null) sb.append(s);
+            }
+        }
+    }
+
+    /** Globs, any of which may match. */
+    private static final class Globs {
+        private static final String META = "*?[]{},\\";
+        private final Set<String> exact = new HashSet<>();
+        private final List<String> suffixes = new ArrayList<>(), prefixes = new ArrayList<>();
+        private final List<Wild> rest = new ArrayList<>();
+
+        /** A glob that needs its regex, with the text any match starts and ends with to rule most paths out first. */
+        private record Wild(String prefix, String suffix, Pattern rx) {
+            boolean matches(String s) {
+                return s.length() >= prefix.length() + suffix.length() && s.startsWith(prefix) && s.endsWith(suffix) && rx.matcher(s).matches();
+            }
+        }
+
+        Globs(Collection<String> globs) {
+            List<String> all = new ArrayList<>();
+            for (String g : globs) expand(g, all);
+            for (String g : all) {
+                int star = g.indexOf('*');
+                if (literal(g)) exact.add(g);
+                else if (star == 0 && literal(g.substring(1)) && g.indexOf('/') < 0) suffixes.add(g.substring(1));
+                else if (star == g.length() - 1 && literal(g.substring(0, star))) prefixes.add(g.substring(0, star));
+                else {
+                    int p = 0, q = g.length();
+                    while (p < q && META.indexOf(g.charAt(p)) < 0) p++;
+                    while (q > p && META.indexOf(g.charAt(q - 1)) < 0) q--;
+                    if (q >= 2 && g.startsWith("**/", q - 2)) q++; // "**/" may match nothing, its '/' included
+                    rest.add(new Wild(g.substring(0, p), g.substring(q), Pattern.compile(regex(g))));
+                }
+            }
+        }
+
+        /** Adds {@code g} with each {@code {a,b}} that holds no other braces written out, up to 64 globs; else {@code g} itself. */
+        private static void expand(String g, List<String> out) {
+            int open = g.indexOf('{'), close = g.indexOf('}', open + 1);
+            if (open < 0 || close < 0 || g.indexOf('\\') >= 0 || g.lastIndexOf('{', close) != open) { out.add(g); return; }
+            String[] alts = g.substring(open + 1, close).split(",", -1);
+            List<String> sub = new ArrayList<>();
+            for (String a : alts) expand(g.substring(0, open) + a + g.substring(close + 1), sub);
+            if (sub.size() > 64) out.add(g); else out.addAll(sub);
+        }
+
+        boolean isEmpty() { return exact.isEmpty() && suffixes.isEmpty() && prefixes.isEmpty() && rest.isEmpty(); }
+
+        boolean matches(String s) {
+            if (exact.contains(s)) return true;
+            for (String x : suffixes) if (s.endsWith(x) && s.indexOf('/') < 0) return true;
+            for (String x : prefixes) if (s.startsWith(x) && s.indexOf('/', x.length()) < 0) return true;
+            for (Wild w : rest) if (w.matches(s)) return true;
+            return false;
+        }
+
+        private static boolean literal(String g) {
+            for (int i=0;i<g.length();i++) if ("*?[{\\".indexOf(g.charAt(i)) >= 0) return false;
+            return true;
+        }
+
+        private static String regex(String g) {
+            StringBuilder sb = new StringBuilder("(?:");
+            int depth = 0;
+            for (int i=0;i<g.length();i++) {
+                char c = g.charAt(i);
+                switch (c) {
+                    case '*' -> {
+                        if (i + 1 < g.length() && g.charAt(i + 1) == '*') {
+                            i++;
+                            // "**/" also matches no directory at all
+                            if (i + 1 < g.length() && g.charAt(i + 1) == '/') { i++; sb.append("(?:.*/)?"); }
+                            else sb.append(".*");
+                        } else sb.append("[^/]*");
+                    }
+                    case '?' -> sb.append("[^/]");
+                    case '[' -> {
+                        int end = g.indexOf(']', i + 2);
+                        if (end < 0) { sb.append("\\["); break; }
+                        String body = g.substring(i + 1, end);
+                        boolean neg = body.startsWith("!") || body.startsWith("^");
+                        if (neg) body = body.substring(1);
+                        sb.append(neg ? "[^" : "[");
+                        for (char b : body.toCharArray()) sb.append(b == '-' ? "-" : quote(b));
+                        sb.append(']');
+                        i = end;
+                    }
+                    case '{' -> { depth++; sb.append("(?:"); }
+                    case '}' -> { if (depth > 0) { depth--; sb.append(')'); } else sb.append("\\}"); }
+                    case ',' -> sb.append(depth > 0 ? "|" : ",");
+                    case '\\' -> sb.append(i + 1 < g.length() ? quote(g.charAt(++i)) : "\\\\");
+                    default -> sb.append(quote(c));
+                }
+            }
+            if (depth > 0) throw new IllegalArgumentException("unclosed { in glob: " + g);
+            return sb.append(')').toString();
+        }
+
+        private static String quote(char c) {
+            return Character.isLetterOrDigit(c) || c == '/' || c == '_' || c == ' ' ? String.valueOf(c) : "\\" + c;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package dev.core;
+
+import java.util.*;
+import java.util.regex.*;
+
+import dev.util.AhoCorasick;
+
+/**
+ * Rules compiled once per scanner: every pattern is compiled up front and, where the regex starts with
+ * a literal (or an alternation of literals), that literal goes into a shared Aho-Corasick automaton.
+ * A scan makes one pass for all literals and only tries a rule's regex at its literal hits; rules
+ * without a usable literal fall back to a plain {@code find()} loop. Matches are the same as running
+ * {@code Pattern.matcher(s).find()} for each rule in order.
+ */
+public class RuleSet {
+    public interface Sink { void match(SecretScanner.Rule rule, String sample); }
+
+    private final List<SecretScanner.Rule> rules;
+    private final Pattern[] patterns;
+    private final boolean[] prefiltered;
+    private final int[] keyRule;
+    private final AhoCorasick literals = new AhoCorasick();
+
+    private RuleSet(List<SecretScanner.Rule> rules) {
+        this.rules = List.copyOf(rules);
+        this.patterns = new Pattern[rules.size()];
+        this.prefiltered = new boolean[rules.size()];
+        List<Integer> owners = new ArrayList<>();
+        for (int r=0;r<rules.size();r++) {
+            patterns[r] = Pattern.compile(rules.get(r).pattern);
+            Prefix px = prefix(rules.get(r).pattern);
+            if (px == null) continue;
+            prefiltered[r] = true;
+            for (String lit : px.literals) { literals.add(lit, px.ignoreCase); owners.add(r); }
+        }
+        keyRule = owners.stream().mapToInt(Integer::intValue).toArray();
+        literals.build();
+    }
+
+    public static RuleSet compile(List<SecretScanner.Rule> rules) { return new RuleSet(rules); }
+
+    public int size() { return rules.size(); }
+    public int prefilteredCount() { int n=0; for (boolean b : prefiltered) if (b) n++; return n; }
+
+    public void scan(CharSequence s, Sink sink) {
+        scan(s, new int[rules.size()], s.length(), sink);
+    }
+
+    /**
+     * Windowed form used for streamed input: for rule r only matches starting in [from[r], limit) are
+     * reported, and from[r] is advanced past each one so the next window resumes where find() would.
+     */
+    public void scan(CharSequence s, int[] from, int limit, Sink sink) {
+        int[][] hits = new int[rules.size()][];
+        int[] counts = new int[rules.size()];
+        if (literals.size() > 0) literals.search(s, (start, key) -> {
+            int r = keyRule[key];
+            if (hits[r] == null) hits[r] = new int[8];
+            else if (counts[r] == hits[r].length) hits[r] = Arrays.copyOf(hits[r], counts[r] * 2);
+            hits[r][counts[r]++] = start;
+        });
+        for (int r=0;r<rules.size();r++) {
+            SecretScanner.Rule rule = rules.get(r);
+            if (from[r] >= limit) continue;
+            Matcher m = patterns[r].matcher(s).useTransparentBounds(true).useAnchoringBounds(false);
+            if (!prefiltered[r]) {
+                m.region(from[r], s.length());
+                while (m.find() && m.start() < limit) { sink.match(rule, m.group()); from[r] = next(m); }
+                continue;
+            }
+            if (counts[r] == 0) continue;
+            int[] hs = hits[r];
+            Arrays.sort(hs, 0, counts[r]);
+            for (int i=0;i<counts[r];i++) {
+                int h = hs[i];
+                if (h < from[r]) continue;
+                if (h >= limit) break;
+                m.region(h, s.length());
+                if (m.lookingAt()) { sink.match(rule, m.group()); from[r] = next(m); }
+            }
+        }
+    }
+
+    private static int next(Matcher m) { return m.end() == m.start() ? m.end() + 1 : m.end(); }
+
+    static final class Prefix {
+        final List<String> literals; final boolean ignoreCase;
+        Prefix(List<String> l, boolean ci) { literals = l; ignoreCase = ci; }
+    }
+
+    /** Literals one of which every match must start with, or null when that cannot be proven. */
+    static Prefix prefix(String rx) {
+        int i = 0, n = rx.length();
+        boolean ci = false;
+        while (i < n) {
+            if (rx.startsWith("(?", i) && i+2 < n && Character.isLetter(rx.charAt(i+2))) {
+                int close = rx.indexOf(')', i);
+                if (close < 0) return null;
+                String flags = rx.substring(i+2, close);
+                if (!flags.matches("[ims]+")) return null;
+                if (flags.indexOf('i') >= 0) ci = true;
+                i = close + 1;
+            } else if (rx.startsWith("\\b", i)) i += 2;
+            else if (rx.charAt(i) == '^') i++;
+            else break;
+        }
+        if (i >= n || !splitTopLevel(rx, 0, n).equals(List.of(rx))) return null;
+        List<String> lits = new ArrayList<>();
+        if (rx.charAt(i) == '(') {
+            int body;
+            if (rx.startsWith("(?:", i)) body = i + 3;
+            else if (rx.startsWith("(?", i)) return null;
+            else body = i + 1;
+            int close = groupEnd(rx, i);
+            if (close < 0) return null;
+            if (close+1 < n && "?*{".indexOf(rx.charAt(close+1)) >= 0) return null;
+            for (String alt : splitTopLevel(rx, body, close)) lits.add(literalRun(alt, 0));
+        } else {
+            lits.add(literalRun(rx, i));
+        }
+        for (String l : lits) if (l.length() < 2) return null;
+        return new Prefix(lits, ci);
+    }
+
+    private static String literalRun(String rx, int i) {
+        StringBuilder sb = new StringBuilder();
+        while (i < rx.length()) {
+            char c = rx.charAt(i), lit;
+            int w = 1;
+            if (c == '\\') {
+                if (i+1 >= rx.length() || Character.isLetterOrDigit(rx.charAt(i+1))) break;
+                lit = rx.charAt(i+1); w = 2;
+            } else if (".[](){}*+?^$|".indexOf(c) >= 0) break;
+            else lit = c;
+            if (lit >= 128) break;
+            int q = i + w;
+            if (q < rx.length() && "?*{".indexOf(rx.charAt(q)) >= 0) break;
+            sb.append(lit);
+            if (q < rx.length() && rx.charAt(q) == '+') break;
+            i = q;
+        }
+        return sb.toString();
+    }
+
+    private static int groupEnd(String rx, int open) {
+        int depth = 0;
+        for (int i=open;i<rx.length();i++) {
+            char c = rx.charAt(i);
+            if (c == '\\') { i++; continue; }
+            if (c == '[') { i = classEnd(rx, i); if (i < 0) return -1; continue; }
+            if (c == '(') depth++;
+            else if (c == ')' && --depth == 0) return i;
+        }
+        return -1;
+    }
+
+    private static int classEnd(String rx, int open) {
+        int depth = 0;
+        for (int i=open;i<rx.length();i++) {
+            char c = rx.charAt(i);
+            if (c == '\\') { i++; continue; }
+            if (c == '[') depth++;
+            else if (c == ']' && --depth == 0) return i;
+        }
+        return -1;
+    }
+
+    private static List<String> splitTopLevel(String rx, int from, int to) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0, start = from;
+        for (int i=from;i<to;i++) {
+            char c = rx.charAt(i);
+            if (c == '\\') { i++; continue; }
+            if (c == '[') { int e = classEnd(rx, i); if (e < 0) return List.of(); i = e; continue; }
+            if (c == '(') depth++;
+            else if (c == ')') depth--;
+            else if (c == '|' && depth == 0) { parts.add(rx.substring(start, i)); start = i + 1; }
+        }
+        parts.add(rx.substring(start, to));
+        return parts;
+    }
+}
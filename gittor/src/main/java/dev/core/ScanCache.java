@@ -0,0 +1,154 @@
+package dev.core;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+
+/**
+ * On-disk memory of earlier secret scans, kept in {@code .gittor/scan-cache.json}.
+ * Outcomes are keyed by git blob id, so a history scan and a working-tree scan share entries, and the
+ * working tree additionally remembers size + mtime per path so unchanged files are not even read.
+ * The whole cache is discarded when the rule-set fingerprint differs from the one it was written with.
+ * Entries a run did not use are written back too, so history and working-tree runs do not evict each
+ * other; a blob entry is dropped once it has gone unused for {@link #maxAge}, and beyond
+ * {@link #maxEntries} the ones unused the longest go first.
+ */
+public class ScanCache {
+    public static final String FILE = "scan-cache.json";
+
+    public static class Stat {
+        public long size;
+        public long mtime;
+        public String blob;
+        public Stat() {}
+        Stat(long size, long mtime, String blob) { this.size = size; this.mtime = mtime; this.blob = blob; }
+    }
+
+    public static class Data {
+        public String fingerprint;
+        public long startedAt;
+        public Map<String, Stat> files = new HashMap<>();
+        public Map<String, SecretScanner.Outcome> blobs = new HashMap<>();
+        /** Per blob entry, the startedAt of the last run that used it. */
+        public Map<String, Long> used = new HashMap<>();
+    }
+
+    /** Milliseconds a blob entry is kept without being used. */
+    public long maxAge = TimeUnit.DAYS.toMillis(30);
+    public int maxEntries = 200_000;
+
+    private final Path root;
+    private final Path file;
+    private final Data prev;
+    private final Data next = new Data();
+
+    private ScanCache(Path root, Path file, Data prev, String fingerprint) {
+        this.root = root;
+        this.file = file;
+        this.prev = prev;
+        next.fingerprint = fingerprint;
+        next.startedAt = System.currentTimeMillis();
+        next.files = new ConcurrentHashMap<>();
+        next.blobs = new ConcurrentHashMap<>();
+    }
+
+    public static ScanCache open(Path root, String fingerprint) {
+        Path file = root.resolve(".gittor").resolve(FILE);
+        Data prev = new Data();
+        if (Files.isRegularFile(file)) {
+            try {
+                Data d = mapper().readValue(file.toFile(), Data.class);
+                if (fingerprint.equals(d.fingerprint)) prev = d;
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable scan cache " + file + ": " + e.getMessage());
+            }
+        }
+        return new ScanCache(root, file, prev, fingerprint);
+    }
+
+    public static ObjectId blobId(byte[] data) {
+        return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, data);
+    }
+
+    public static ObjectId blobId(long size, java.io.InputStream in) throws IOException {
+        return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, size, in);
+    }
+
+    /** Outcome for a file whose size and mtime match the last run; files touched while that run was in progress are not trusted. */
+    public SecretScanner.Outcome byStat(Path p, BasicFileAttributes attrs) {
+        String key = key(p);
+        Stat st = prev.files.get(key);
+        long mtime = attrs.lastModifiedTime().toMillis();
+        if (st == null || st.size != attrs.size() || st.mtime != mtime || mtime >= prev.startedAt) return null;
+        SecretScanner.Outcome o = prev.blobs.get(st.blob);
+        if (o == null) return null;
+        next.files.put(key, st);
+        next.blobs.put(st.blob, o);
+        return o;
+    }
+
+    public SecretScanner.Outcome byBlob(ObjectId id) {
+        String key = id.name();
+        SecretScanner.Outcome o = next.blobs.get(key);
+        if (o == null) {
+            o = prev.blobs.get(key);
+            if (o != null) next.blobs.put(key, o);
+        }
+        return o;
+    }
+
+    public void put(ObjectId id, SecretScanner.Outcome o) {
+        next.blobs.put(id.name(), o);
+    }
+
+    public void remember(Path p, BasicFileAttributes attrs, ObjectId id) {
+        next.files.put(key(p), new Stat(attrs.size(), attrs.lastModifiedTime().toMillis(), id.name()));
+    }
+
+    public void save() {
+        long now = next.startedAt;
+        for (String id : next.blobs.keySet()) next.used.put(id, now);
+        List<String> old = new ArrayList<>();
+        for (String id : prev.blobs.keySet()) if (!next.blobs.containsKey(id) && now - used(id) <= maxAge) old.add(id);
+        old.sort(Comparator.comparingLong(this::used).reversed());
+        for (String id : old) {
+            if (next.blobs.size() >= maxEntries) break;
+            next.blobs.put(id, prev.blobs.get(id));
+            next.used.put(id, used(id));
+        }
+        // a stat the last run could not trust is dropped; against this run's later start it would pass
+        prev.files.forEach((path, st) -> {
+            if (st.mtime < prev.startedAt && next.blobs.containsKey(st.blob)) next.files.putIfAbsent(path, st);
+        });
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), FILE, ".tmp");
+            mapper().writeValue(tmp.toFile(), next);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write scan cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    /** Caches written before entries were dated count as used by the run that wrote them. */
+    private long used(String id) {
+        return prev.used.getOrDefault(id, prev.startedAt);
+    }
+
+    private String key(Path p) {
+        return root.relativize(p).toString().replace('\\', '/');
+    }
+
+    private static ObjectMapper mapper() {
+        return new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+}
@@ -0,0 +1,291 @@
+package dev.core;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Receives scan results while a scan runs instead of after it. The scanner hands over findings and
+ * skipped entries in the same order they would have in {@link SecretScanner.Result}, and drops them
+ * afterwards; {@link #finish} gets the remaining counters. Writers flush after every finding.
+ */
+public abstract class ScanReport {
+    public long findings;
+    /** Set by scans whose finding paths are relative to the repository instead of the working directory. */
+    public boolean repoRelative;
+
+    public final void finding(SecretScanner.Finding f) {
+        findings++;
+        try { writeFinding(f); } catch (IOException e) { throw new UncheckedIOException("report write failed: "+e.getMessage(), e); }
+    }
+
+    public final void skipped(SecretScanner.Skipped s) {
+        try { writeSkipped(s); } catch (IOException e) { throw new UncheckedIOException("report write failed: "+e.getMessage(), e); }
+    }
+
+    public final void finish(SecretScanner.Result summary) {
+        try { writeSummary(summary); } catch (IOException e) { throw new UncheckedIOException("report write failed: "+e.getMessage(), e); }
+    }
+
+    protected abstract void writeFinding(SecretScanner.Finding f) throws IOException;
+    protected abstract void writeSkipped(SecretScanner.Skipped s) throws IOException;
+    protected abstract void writeSummary(SecretScanner.Result summary) throws IOException;
+
+    /** Report for {@code format} ("json", "ndjson" or "sarif"), or null for the buffered text output. */
+    public static ScanReport open(String format, OutputStream out, SecretScanner scanner, Path root) {
+        try {
+            return switch (format) {
+                case "text" -> null;
+                case "json" -> new Json(out);
+                case "ndjson" -> new Ndjson(out);
+                case "sarif" -> new Sarif(out, scanner.config, root);
+                default -> throw new IllegalArgumentException("unknown report format: " + format);
+            };
+        } catch (IOException e) { throw new UncheckedIOException("report open failed: "+e.getMessage(), e); }
+    }
+
+    /**
+     * Same document as {@link SecretScanner.Result#toJson}. Findings are written as they arrive; skipped
+     * entries come after the counters in that layout, so they are spooled to a temp file until the end.
+     */
+    public static class Json extends ScanReport {
+        private final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        private final JsonGenerator gen;
+        private final Path spool;
+        private final DataOutputStream skipped;
+        private boolean started;
+
+        public Json(OutputStream out) throws IOException {
+            gen = mapper.createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            spool = Files.createTempFile("gittor-skipped", ".bin");
+            spool.toFile().deleteOnExit();
+            skipped = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spool)));
+        }
+
+        private void begin() throws IOException {
+            if (started) return;
+            started = true;
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("findings");
+        }
+
+        @Override protected void writeFinding(SecretScanner.Finding f) throws IOException {
+            begin();
+            gen.writeObject(f);
+            gen.flush();
+        }
+
+        @Override protected void writeSkipped(SecretScanner.Skipped s) throws IOException {
+            skipped.writeUTF(s.path);
+            skipped.writeUTF(s.reason);
+        }
+
+        @Override protected void writeSummary(SecretScanner.Result r) throws IOException {
+            try {
+                skipped.close();
+                begin();
+                for (SecretScanner.Finding f : r.findings) finding(f);
+                gen.writeEndArray();
+                gen.writeNumberField("filesScanned", r.filesScanned);
+                gen.writeBooleanField("repoSkipped", r.repoSkipped);
+                gen.writeStringField("repoSkipReason", r.repoSkipReason);
+                gen.writeArrayFieldStart("skippedPaths");
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spool)))) {
+                    while (in.available() > 0) gen.writeObject(new SecretScanner.Skipped(in.readUTF(), in.readUTF()));
+                }
+                for (SecretScanner.Skipped s : r.skippedPaths) gen.writeObject(s);
+                gen.writeEndArray();
+                gen.writeObjectField("skippedCounts", r.skippedCounts);
+                gen.writeNumberField("prunedDirs", r.prunedDirs);
+                if (r.cache != null) gen.writeObjectField("cache", r.cache);
+                gen.writeEndObject();
+                gen.writeRaw('\n');
+                gen.flush();
+            } finally {
+                Files.deleteIfExists(spool);
+            }
+        }
+    }
+
+    /** One JSON object per line, tagged by "type": every finding and skipped entry, then a summary line. */
+    public static class Ndjson extends ScanReport {
+        private final JsonGenerator gen;
+
+        public Ndjson(OutputStream out) throws IOException {
+            gen = new ObjectMapper().createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            gen.setRootValueSeparator(null);
+        }
+
+        @Override protected void writeFinding(SecretScanner.Finding f) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("type", "finding");
+            gen.writeStringField("path", f.path);
+            gen.writeStringField("rule", f.rule);
+            gen.writeStringField("sample", f.sample);
+            if (f.commit != null) gen.writeStringField("commit", f.commit);
+            end();
+        }
+
+        @Override protected void writeSkipped(SecretScanner.Skipped s) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("type", "skipped");
+            gen.writeStringField("path", s.path);
+            gen.writeStringField("reason", s.reason);
+            end();
+        }
+
+        @Override protected void writeSummary(SecretScanner.Result r) throws IOException {
+            for (SecretScanner.Finding f : r.findings) finding(f);
+            for (SecretScanner.Skipped s : r.skippedPaths) writeSkipped(s);
+            gen.writeStartObject();
+            gen.writeStringField("type", "summary");
+            gen.writeNumberField("findings", findings);
+            gen.writeNumberField("filesScanned", r.filesScanned);
+            gen.writeBooleanField("repoSkipped", r.repoSkipped);
+            if (r.repoSkipReason != null) gen.writeStringField("repoSkipReason", r.repoSkipReason);
+            gen.writeObjectField("skippedCounts", r.skippedCounts);
+            gen.writeNumberField("prunedDirs", r.prunedDirs);
+            if (r.cache != null) gen.writeObjectField("cache", r.cache);
+            end();
+        }
+
+        private void end() throws IOException {
+            gen.writeEndObject();
+            gen.writeRaw('\n');
+            gen.flush();
+        }
+    }
+
+    /**
+     * SARIF 2.1.0 log with one run. Every configured rule (and the entropy check) is declared up front so
+     * results can follow immediately; paths under the scanned root are emitted relative to {@code %SRCROOT%}. Samples
+     * are left out of the log, since code-scanning tools display and store messages. Skipped entries are
+     * summarised as counts in the invocation properties.
+     */
+    public static class Sarif extends ScanReport {
+        private final JsonGenerator gen;
+        private final Path root;
+        private static final String SRCROOT = "%SRCROOT%";
+        private final SecretScanner.Config config;
+        private boolean started;
+
+        public Sarif(OutputStream out, SecretScanner.Config config, Path root) throws IOException {
+            this.root = root.toAbsolutePath().normalize();
+            this.config = config;
+            gen = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        private void begin() throws IOException {
+            if (started) return;
+            started = true;
+            gen.writeStartObject();
+            gen.writeStringField("$schema", "https://json.schemastore.org/sarif-2.1.0.json");
+            gen.writeStringField("version", "2.1.0");
+            gen.writeArrayFieldStart("runs");
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("tool");
+            gen.writeObjectFieldStart("driver");
+            gen.writeStringField("name", "gittor");
+            gen.writeArrayFieldStart("rules");
+            List<String> names = new ArrayList<>();
+            for (SecretScanner.Rule rule : config.rules) names.add(rule.name);
+            names.add("entropy>=" + config.entropyThreshold);
+            for (String name : names) {
+                gen.writeStartObject();
+                gen.writeStringField("id", name);
+                gen.writeObjectFieldStart("shortDescription");
+                gen.writeStringField("text", name);
+                gen.writeEndObject();
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeEndObject();
+            gen.writeObjectFieldStart("originalUriBaseIds");
+            gen.writeObjectFieldStart(SRCROOT);
+            gen.writeStringField("uri", root.toUri().toASCIIString());
+            gen.writeEndObject();
+            gen.writeEndObject();
+            gen.writeArrayFieldStart("results");
+        }
+
+        @Override protected void writeFinding(SecretScanner.Finding f) throws IOException {
+            begin();
+            gen.writeStartObject();
+            gen.writeStringField("ruleId", f.rule);
+            gen.writeStringField("level", "error");
+            gen.writeObjectFieldStart("message");
+            gen.writeStringField("text", "Possible secret (" + f.rule + ")" + (f.commit != null ? " in commit " + f.commit : ""));
+            gen.writeEndObject();
+            gen.writeArrayFieldStart("locations");
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("physicalLocation");
+            gen.writeObjectFieldStart("artifactLocation");
+            Path p = location(f.path);
+            if (p.isAbsolute()) {
+                gen.writeStringField("uri", p.toUri().toASCIIString());
+            } else {
+                gen.writeStringField("uri", relativeUri(p));
+                gen.writeStringField("uriBaseId", SRCROOT);
+            }
+            gen.writeEndObject();
+            gen.writeEndObject();
+            gen.writeEndObject();
+            gen.writeEndArray();
+            if (f.commit != null) {
+                gen.writeObjectFieldStart("properties");
+                gen.writeStringField("commit", f.commit);
+                gen.writeEndObject();
+            }
+            gen.writeEndObject();
+            gen.flush();
+        }
+
+        @Override protected void writeSkipped(SecretScanner.Skipped s) {}
+
+        @Override protected void writeSummary(SecretScanner.Result r) throws IOException {
+            begin();
+            for (SecretScanner.Finding f : r.findings) finding(f);
+            gen.writeEndArray();
+            gen.writeArrayFieldStart("invocations");
+            gen.writeStartObject();
+            gen.writeBooleanField("executionSuccessful", true);
+            gen.writeObjectFieldStart("properties");
+            gen.writeNumberField("filesScanned", r.filesScanned);
+            if (r.repoSkipReason != null) gen.writeStringField("repoSkipReason", r.repoSkipReason);
+            gen.writeObjectField("skippedCounts", r.skippedCounts);
+            gen.writeNumberField("prunedDirs", r.prunedDirs);
+            gen.writeEndObject();
+            gen.writeEndObject();
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeRaw('\n');
+            gen.flush();
+        }
+
+        private Path location(String path) {
+            Path p = Path.of(path);
+            p = repoRelative ? root.resolve(p).normalize() : p.toAbsolutePath().normalize();
+            return p.startsWith(root) ? root.relativize(p) : p;
+        }
+
+        /** Percent-encodes each segment; a leading '/' keeps a ':' in the first segment from reading as a scheme. */
+        private static String relativeUri(Path p) {
+            try {
+                String raw = new URI(null, null, "/" + p.toString().replace('\\', '/'), null).toASCIIString();
+                return raw.substring(1).replace(":", "%3A");
+            } catch (URISyntaxException e) {
+                throw new RuntimeException("SARIF uri failed: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -2,12 +2,31 @@ package dev.core;
 
 import java.nio.file.*;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import javax.xml.parsers.DocumentBuilderFactory;
 import org.w3c.dom.Element;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.*;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.revwalk.*;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.IntList;
+import org.eclipse.jgit.util.RawParseUtils;
+import dev.util.IO;
 
 public class SecretScanner {
 
@@ -21,9 +40,15 @@ public class SecretScanner {
     }
     public static class Config {
         public List<String> includeExtensions = new ArrayList<>(List.of("txt","md","java","xml","yml","yaml","json","properties","env",".gitignore",".gitattributes"));
-        public List<String> denyPaths = new ArrayList<>(List.of("node_modules/",".git/","build/","dist/","target/",".idea/"));
+        public List<String> denyPaths = new ArrayList<>(List.of("node_modules/",".git/",".gittor/","build/","dist/","target/",".idea/"));
         public List<String> allowPatterns = new ArrayList<>();
         public double entropyThreshold = 3.5;
+        /** Files (and blobs) larger than this are scanned in windows instead of being loaded whole. */
+        public long streamThreshold = 8L * 1024 * 1024;
+        /** Window size in characters. */
+        public int streamWindow = 1024 * 1024;
+        /** Characters shared by consecutive windows; must cover the longest expected match. */
+        public int streamOverlap = 4096;
         public List<Rule> rules = defaultRules();
 
         static List<Rule> defaultRules() {
@@ -45,11 +70,17 @@ public class SecretScanner {
         public String path;
         public String rule;
         public String sample;
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String commit;
         public Finding(){} public Finding(String p,String r,String s){
             path=p;
             rule=r;
             sample=s;
         }
+        public Finding(String p,String r,String s,String c){
+            this(p, r, s);
+            commit=c;
+        }
     }
     public static class Result {
         public List<Finding> findings = new ArrayList<>();
@@ -59,6 +90,22 @@ public class SecretScanner {
         public String repoSkipReason = null;
         public List<Skipped> skippedPaths = new ArrayList<>();
         public Map<String, Long> skippedCounts = new HashMap<>();
+        public long prunedDirs = 0;
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public CacheStats cache;
+
+        void merge(Result o) {
+            findings.addAll(o.findings);
+            filesScanned += o.filesScanned;
+            skippedPaths.addAll(o.skippedPaths);
+            o.skippedCounts.forEach((k, v) -> skippedCounts.merge(k, v, Long::sum));
+            prunedDirs += o.prunedDirs;
+            if (o.cache != null) {
+                if (cache == null) cache = new CacheStats();
+                cache.hits += o.cache.hits;
+                cache.misses += o.cache.misses;
+            }
+        }
 
         public String toJson(){
             try {
@@ -76,7 +123,13 @@ public class SecretScanner {
             } else if (!skippedPaths.isEmpty()) {
                 sb.append("Skipped entries: ").append(skippedPaths.size()).append('\n');
             }
-            for (Finding f: findings) sb.append(" - ").append(f.path).append(" :: ").append(f.rule).append('\n');
+            if (prunedDirs > 0) sb.append("Pruned directories: ").append(prunedDirs).append('\n');
+            if (cache != null) sb.append("Cache: ").append(cache.hits).append(" hits, ").append(cache.misses).append(" misses").append('\n');
+            for (Finding f: findings) {
+                sb.append(" - ").append(f.path).append(" :: ").append(f.rule);
+                if (f.commit != null) sb.append(" @ ").append(f.commit, 0, Math.min(12, f.commit.length()));
+                sb.append('\n');
+            }
             return sb.toString();
         }
     }
@@ -86,10 +139,49 @@ public class SecretScanner {
         public Skipped() {};
         public Skipped(String path, String reason) { this.path = path; this.reason = reason; }
     }
+    public static class CacheStats {
+        public long hits;
+        public long misses;
+    }
+    /** What scanning one blob produced, independent of its path; this is what the scan cache stores. */
+    public static class Outcome {
+        public boolean binary;
+        public String allow;
+        public List<Match> matches = new ArrayList<>();
+    }
+    public static class Match {
+        public String rule;
+        public String sample;
+        public Match() {}
+        public Match(String rule, String sample) { this.rule = rule; this.sample = sample; }
+    }
 
     public Config config = new Config();
+    public int threads = Runtime.getRuntime().availableProcessors();
+    public ScanCache cache;
+    /** Working-tree scans list files from the git index instead of walking the directory. */
+    public boolean trackedOnly;
+    /** When set, findings and skipped entries go here as they are produced instead of into the returned Result. */
+    public ScanReport report;
+    private RuleSet ruleSet;
+    private PathRules pathRules;
+    private final ThreadLocal<EntropyDetector> entropy = ThreadLocal.withInitial(() -> new EntropyDetector(config.entropyThreshold, config.streamWindow));
     public SecretScanner() {}
     public SecretScanner(Config cfg){ this.config = cfg; }
+    public SecretScanner(Config cfg, int threads){
+        this.config = cfg;
+        if (threads > 0) this.threads = threads;
+    }
+
+    private RuleSet ruleSet() {
+        if (ruleSet == null) ruleSet = RuleSet.compile(config.rules);
+        return ruleSet;
+    }
+
+    private PathRules pathRules() {
+        if (pathRules == null) pathRules = PathRules.of(config);
+        return pathRules;
+    }
 
     public static Config loadRules(Path rulesXml) {
         if (rulesXml == null) return new Config();
@@ -115,6 +207,13 @@ public class SecretScanner {
                 String th = ((Element)entropy.item(0)).getAttribute("threshold");
                 if (!th.isBlank()) cfg.entropyThreshold = Double.parseDouble(th);
             }
+            var stream = doc.getElementsByTagName("stream");
+            if (stream.getLength()>0) {
+                Element e = (Element) stream.item(0);
+                if (!e.getAttribute("threshold").isBlank()) cfg.streamThreshold = IO.parseSize(e.getAttribute("threshold"));
+                if (!e.getAttribute("window").isBlank()) cfg.streamWindow = Math.toIntExact(IO.parseSize(e.getAttribute("window")));
+                if (!e.getAttribute("overlap").isBlank()) cfg.streamOverlap = Math.toIntExact(IO.parseSize(e.getAttribute("overlap")));
+            }
             return cfg;
         } catch (Exception e) { throw new RuntimeException("rules.xml parse failed: "+e.getMessage(), e); }
     }
@@ -126,7 +225,7 @@ public class SecretScanner {
     }
 
     public Result scanWorkingTree(Path root) {
-        Result r = new Result();
+        Result r = newResult();
 
         String rskip = repoSkipReason(root);
         if (rskip != null) {
@@ -134,91 +233,550 @@ public class SecretScanner {
             r.repoSkipReason = rskip;
             r.skippedPaths.add(new Skipped(root.toString(), rskip));
             r.skippedCounts.put("deny", r.skippedCounts.getOrDefault("deny", 0L) + 1L);
-            return r;
+            return publish(r);
         }
 
-        try {
-            Files.walk(root).filter(Files::isRegularFile).forEach(p -> {
-                String reason = fileSkipReason(p);
+        List<Path> files = new ArrayList<>();
+        r.prunedDirs = pathRules().walk(root, trackedOnly, files::add);
+        Collections.sort(files);
+
+        r.merge(scanParallel(files.size(), (lo, hi) -> scanRange(files, lo, hi)));
+        if (cache != null) cache.save();
+        return r;
+    }
+
+    /**
+     * Scans every blob reachable from any ref, reading objects straight from the object database.
+     * Commits are walked parents-first and each blob id is scanned once, attributed to the first
+     * commit and path it appears under. Trees already visited are not descended into again.
+     */
+    public Result scanHistory(Path repoPath) {
+        Result r = newResult();
+        if (report != null) report.repoRelative = true;
+        String rskip = repoSkipReason(repoPath);
+        if (rskip != null) {
+            r.repoSkipped = true;
+            r.repoSkipReason = rskip;
+            r.skippedPaths.add(new Skipped(repoPath.toString(), rskip));
+            r.skippedCounts.put("deny", r.skippedCounts.getOrDefault("deny", 0L) + 1L);
+            return publish(r);
+        }
+        try (Git git = Git.open(repoPath.toFile())) {
+            Repository repo = git.getRepository();
+            List<BlobOrigin> blobs = new ArrayList<>();
+            try (RevWalk walk = new RevWalk(repo); ObjectReader reader = repo.newObjectReader()) {
+                walk.sort(RevSort.TOPO, true);
+                walk.sort(RevSort.REVERSE, true);
+                for (Ref ref : repo.getRefDatabase().getRefs()) {
+                    if (ref.getObjectId() == null) continue;
+                    RevObject o = walk.peel(walk.parseAny(ref.getObjectId()));
+                    if (o instanceof RevCommit c) walk.markStart(c);
+                }
+                Set<String> seenTrees = new HashSet<>();
+                Set<ObjectId> seenBlobs = new HashSet<>();
+                Set<String> skippedPaths = new HashSet<>();
+                for (RevCommit c : walk) collectBlobs(reader, c.getTree(), "", c.name(), seenTrees, seenBlobs, skippedPaths, blobs, r);
+            }
+            r.merge(scanParallel(blobs.size(), (lo, hi) -> {
+                try (ObjectReader reader = repo.newObjectReader()) { return scanBlobs(reader, blobs, lo, hi); }
+            }));
+            if (cache != null) cache.save();
+        } catch (IOException e) { throw new RuntimeException("history scan failed: "+e.getMessage(), e); }
+        return r;
+    }
+
+    /**
+     * Pre-commit scan: compares the index with {@code HEAD} and scans only the lines a staged blob adds or
+     * changes. Binary and allowlist checks still look at the whole staged blob; blobs above the stream
+     * threshold are scanned whole. The cache is not used, since the outcome depends on both blobs.
+     */
+    public Result scanStaged(Path repoPath) {
+        Result r = newResult();
+        if (report != null) report.repoRelative = true;
+        String rskip = repoSkipReason(repoPath);
+        if (rskip != null) {
+            r.repoSkipped = true;
+            r.repoSkipReason = rskip;
+            r.skippedPaths.add(new Skipped(repoPath.toString(), rskip));
+            r.skippedCounts.put("deny", r.skippedCounts.getOrDefault("deny", 0L) + 1L);
+            return publish(r);
+        }
+        try (Git git = Git.open(repoPath.toFile())) {
+            Repository repo = git.getRepository();
+            ObjectId head = repo.resolve(Constants.HEAD + "^{tree}");
+            try (ObjectReader reader = repo.newObjectReader(); TreeWalk tw = new TreeWalk(repo, reader)) {
+                tw.addTree(head != null ? new CanonicalTreeParser(null, reader, head) : new EmptyTreeIterator());
+                tw.addTree(new DirCacheIterator(repo.readDirCache()));
+                tw.setRecursive(true);
+                tw.setFilter(TreeFilter.ANY_DIFF);
+                while (tw.next()) {
+                    FileMode mode = tw.getFileMode(1);
+                    if (mode != FileMode.REGULAR_FILE && mode != FileMode.EXECUTABLE_FILE) continue;
+                    String path = tw.getPathString();
+                    String reason = fileSkipReason(Paths.get(path));
+                    if (reason != null) {
+                        r.skippedPaths.add(new Skipped(path, reason));
+                        if (reason.startsWith("Matched deny rule:")) {
+                            r.skippedCounts.put("deny", r.skippedCounts.getOrDefault("deny", 0L) + 1L);
+                        } else {
+                            r.skippedCounts.put("ext", r.skippedCounts.getOrDefault("ext", 0L) + 1L);
+                        }
+                        continue;
+                    }
+                    try {
+                        ObjectLoader loader = reader.open(tw.getObjectId(1), Constants.OBJ_BLOB);
+                        Outcome o;
+                        if (loader.getSize() > config.streamThreshold) {
+                            try (InputStream in = loader.openStream()) { o = scanStream(in); }
+                        } else {
+                            FileMode was = tw.getFileMode(0);
+                            byte[] old = new byte[0];
+                            if (was == FileMode.REGULAR_FILE || was == FileMode.EXECUTABLE_FILE) {
+                                ObjectLoader prev = reader.open(tw.getObjectId(0), Constants.OBJ_BLOB);
+                                if (prev.getSize() <= config.streamThreshold) old = prev.getCachedBytes();
+                            }
+                            o = scanAdded(old, loader.getCachedBytes());
+                        }
+                        apply(o, path, null, r);
+                    } catch (IOException e) {
+                        r.skippedPaths.add(new Skipped(path, "IO error: " + e.getMessage()));
+                        r.skippedCounts.put("io", r.skippedCounts.getOrDefault("io", 0L) + 1L);
+                    }
+                }
+            }
+        } catch (IOException e) { throw new RuntimeException("staged scan failed: "+e.getMessage(), e); }
+        return publish(r);
+    }
+
+    /** Like {@link #scanBytes} on {@code data}, but rules and entropy only see the lines that differ from {@code old}. */
+    private Outcome scanAdded(byte[] old, byte[] data) {
+        Outcome o = new Outcome();
+        if (binary(data)) { o.binary = true; return o; }
+        String s = new String(data);
+        for (String allow : config.allowPatterns) if (s.contains(allow)) {
+            o.allow = allow;
+            return o;
+        }
+        IntList lines = RawParseUtils.lineMap(data, 0, data.length);
+        EditList edits = DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM)
+                .diff(RawTextComparator.DEFAULT, new RawText(old), new RawText(data));
+        java.io.ByteArrayOutputStream added = new java.io.ByteArrayOutputStream();
+        for (Edit e : edits) {
+            if (e.getLengthB() == 0) continue;
+            int from = lines.get(e.getBeginB() + 1), to = lines.get(e.getEndB() + 1);
+            added.write(data, from, to - from);
+            if (to > from && data[to - 1] != '\n') added.write('\n');
+        }
+        byte[] b = added.toByteArray();
+        match(new String(b), b, o);
+        return o;
+    }
+
+    /** A blob to scan at the first path it was seen at, or with {@code skip} set, an excluded path to report. */
+    private record BlobOrigin(ObjectId id, String path, String commit, String skip) {}
+
+    /**
+     * Lists each blob once, at the first included path it appears at. The path filter runs first, so a blob
+     * that was first committed under an excluded path is still scanned once it shows up under an included
+     * one; excluded paths are reported once each. Deny rules match the whole path, so a tree is only skipped
+     * when it was already listed at the same path, not when it turns up somewhere else.
+     */
+    private void collectBlobs(ObjectReader reader, ObjectId tree, String prefix, String commit, Set<String> seenTrees, Set<ObjectId> seenBlobs, Set<String> skippedPaths, List<BlobOrigin> out, Result r) throws IOException {
+        if (!seenTrees.add(tree.name() + " " + prefix)) return;
+        for (CanonicalTreeParser p = new CanonicalTreeParser(null, reader, tree); !p.eof(); p.next()) {
+            FileMode mode = p.getEntryFileMode();
+            String path = prefix + p.getEntryPathString();
+            if (mode == FileMode.TREE) {
+                if (pathRules().denied(path + "/") != null) { r.prunedDirs++; continue; }
+                collectBlobs(reader, p.getEntryObjectId(), path + "/", commit, seenTrees, seenBlobs, skippedPaths, out, r);
+            } else if (mode == FileMode.REGULAR_FILE || mode == FileMode.EXECUTABLE_FILE) {
+                ObjectId id = p.getEntryObjectId();
+                String reason = fileSkipReason(Paths.get(path));
                 if (reason != null) {
-                    r.skippedPaths.add(new Skipped(p.toString(), reason));
-                    if (reason.startsWith("Matched deny rule:")) {
-                        r.skippedCounts.put("deny", r.skippedCounts.getOrDefault("deny", 0L) + 1L);
-                    } else if (reason.startsWith("Extension not included:")) {
-                        r.skippedCounts.put("ext", r.skippedCounts.getOrDefault("ext", 0L) + 1L);
+                    if (skippedPaths.add(path)) out.add(new BlobOrigin(id, path, commit, reason));
+                } else if (seenBlobs.add(id)) {
+                    out.add(new BlobOrigin(id, path, commit, null));
+                }
+            }
+        }
+    }
+
+    private Result scanBlobs(ObjectReader reader, List<BlobOrigin> blobs, int lo, int hi) {
+        Result r = newResult();
+        for (int i=lo;i<hi;i++) {
+            BlobOrigin b = blobs.get(i);
+            String reason = b.skip();
+            if (reason != null) {
+                r.skippedPaths.add(new Skipped(b.path(), reason));
+                if (reason.startsWith("Matched deny rule:")) {
+                    r.skippedCounts.put("deny", r.skippedCounts.getOrDefault("deny", 0L) + 1L);
+                } else {
+                    r.skippedCounts.put("ext", r.skippedCounts.getOrDefault("ext", 0L) + 1L);
+                }
+                continue;
+            }
+            try {
+                Outcome o = cache != null ? cache.byBlob(b.id()) : null;
+                if (o != null) r.cache.hits++;
+                else {
+                    ObjectLoader loader = reader.open(b.id(), Constants.OBJ_BLOB);
+                    if (loader.getSize() > config.streamThreshold) {
+                        if (cache != null) r.cache.misses++;
+                        try (InputStream in = loader.openStream()) { o = scanStream(in); }
+                        if (cache != null) cache.put(b.id(), o);
+                    } else {
+                        o = cached(b.id(), loader.getCachedBytes(), r);
                     }
                 }
-                scanFile(p, r);
-            });
-        } catch (IOException e) { throw new RuntimeException(e); }
+                apply(o, b.path(), b.commit(), r);
+            } catch (IOException e) {
+                r.skippedPaths.add(new Skipped(b.path(), "IO error: " + e.getMessage()));
+                r.skippedCounts.put("io", r.skippedCounts.getOrDefault("io", 0L) + 1L);
+            }
+        }
         return r;
     }
 
+    private Result newResult() {
+        Result r = new Result();
+        if (cache != null) r.cache = new CacheStats();
+        return r;
+    }
+
+    private static final int SCAN_BATCH = 32;
+
+    private interface RangeScan { Result scan(int lo, int hi); }
+
+    /**
+     * Scans [0, n) in batches on {@code threads} workers. Batches are claimed in input order and merged
+     * (or handed to the report) in input order, so output does not depend on the thread count; workers
+     * stay within a few batches of the oldest unfinished one, which bounds what waits to be published.
+     */
+    private Result scanParallel(int n, RangeScan leaf) {
+        ruleSet();
+        Batches b = new Batches(n);
+        if (threads <= 1 || n <= SCAN_BATCH) {
+            for (int lo; (lo = b.claim()) >= 0; ) b.done(lo, leaf.scan(lo, Math.min(n, lo + SCAN_BATCH)));
+            return b.total;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t=0;t<threads;t++) workers.add(pool.submit(() -> {
+                try {
+                    for (int lo; (lo = b.claim()) >= 0; ) b.done(lo, leaf.scan(lo, Math.min(n, lo + SCAN_BATCH)));
+                } catch (RuntimeException | Error e) { b.abort(); throw e; }
+            }));
+            for (Future<?> f : workers) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("scan interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new RuntimeException("scan failed: "+e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return b.total;
+    }
+
+    private final class Batches {
+        final int n;
+        final int ahead = Math.max(4, 4 * threads) * SCAN_BATCH;
+        final Result total = newResult();
+        final Map<Integer, Result> pending = new HashMap<>();
+        int claimed, next;
+        boolean aborted;
+
+        Batches(int n) { this.n = n; }
+
+        synchronized int claim() {
+            while (!aborted && claimed < n && claimed - next >= ahead) {
+                try { wait(); } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("scan interrupted", e);
+                }
+            }
+            if (aborted || claimed >= n) return -1;
+            int lo = claimed;
+            claimed += SCAN_BATCH;
+            return lo;
+        }
+
+        synchronized void done(int lo, Result r) {
+            pending.put(lo, r);
+            for (Result p; (p = pending.remove(next)) != null; next += SCAN_BATCH) total.merge(publish(p));
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+    }
+
+    /** Hands findings and skipped entries to the report, if there is one, leaving only the counters in {@code r}. */
+    private Result publish(Result r) {
+        if (report == null) return r;
+        for (Finding f : r.findings) report.finding(f);
+        for (Skipped sk : r.skippedPaths) report.skipped(sk);
+        r.findings.clear();
+        r.skippedPaths.clear();
+        return r;
+    }
+
+    private Result scanRange(List<Path> files, int lo, int hi) {
+        Result r = newResult();
+        for (int i=lo;i<hi;i++) {
+            Path p = files.get(i);
+            String reason = fileSkipReason(p);
+            if (reason != null) {
+                skip(p.toString(), reason, r);
+                continue;
+            }
+            scanFile(p, r);
+        }
+        return r;
+    }
+
+    private static void skip(String path, String reason, Result r) {
+        r.skippedPaths.add(new Skipped(path, reason));
+        if (reason.startsWith("Matched deny rule:")) {
+            r.skippedCounts.put("deny", r.skippedCounts.getOrDefault("deny", 0L) + 1L);
+        } else if (reason.startsWith("Extension not included:")) {
+            r.skippedCounts.put("ext", r.skippedCounts.getOrDefault("ext", 0L) + 1L);
+        }
+    }
+
+    /**
+     * Scans one working-tree file for a walk shared with other analyses, applying the usual skip rules.
+     * {@code data} is its content, or null for files above the stream threshold, which are streamed from
+     * disk. The cache is not consulted.
+     */
+    public void scanFile(Path p, byte[] data, Result r) {
+        String reason = fileSkipReason(p);
+        if (reason != null) {
+            skip(p.toString(), reason, r);
+            return;
+        }
+        try {
+            Outcome o;
+            if (data != null) o = scanBytes(data);
+            else try (InputStream in = Files.newInputStream(p)) { o = scanStream(in); }
+            apply(o, p.toString(), null, r);
+        } catch (IOException e) {
+            r.skippedPaths.add(new Skipped(p.toString(), "IO error: " + e.getMessage()));
+            r.skippedCounts.put("io", r.skippedCounts.getOrDefault("io", 0L) + 1L);
+        }
+    }
+
     private String repoSkipReason(Path repoRoot) {
         String norm = repoRoot.toString().replace('\\','/') + (repoRoot.toString().replace('\\','/').endsWith("/") ? "" : "/");
-        for (String d : config.denyPaths) if (norm.contains(d)) return "Matched deny rule: " + d;
-        return null;
+        String d = pathRules().denied(norm);
+        return d != null ? "Matched deny rule: " + d : null;
     }
 
     private String fileSkipReason(Path p) {
-        String norm = p.toString().replace('\\','/');
-        for (String d : config.denyPaths) if (norm.contains(d)) return "Matched deny rule: " + d;
+        String d = pathRules().denied(p);
+        if (d != null) return "Matched deny rule: " + d;
+        String ext = pathRules().excludedExtension(p);
+        return ext != null ? "Extension not included: " + ext : null;
+    }
+
+    private void scanFile(Path p, Result r) {
+        try {
+            Outcome o = null;
+            BasicFileAttributes attrs = null;
+            if (cache != null) {
+                attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                o = cache.byStat(p, attrs);
+            }
+            if (o == null) {
+                long size = attrs != null ? attrs.size() : Files.size(p);
+                if (size > config.streamThreshold) {
+                    ObjectId id = null;
+                    if (cache != null) {
+                        try (InputStream in = Files.newInputStream(p)) { id = ScanCache.blobId(size, in); }
+                        o = cache.byBlob(id);
+                    }
+                    if (o != null) r.cache.hits++;
+                    else {
+                        if (cache != null) r.cache.misses++;
+                        try (InputStream in = Files.newInputStream(p)) { o = scanStream(in); }
+                        if (cache != null) cache.put(id, o);
+                    }
+                    if (cache != null) cache.remember(p, attrs, id);
+                } else {
+                    byte[] data = java.nio.file.Files.readAllBytes(p);
+                    ObjectId id = cache != null ? ScanCache.blobId(data) : null;
+                    o = cached(id, data, r);
+                    if (cache != null) cache.remember(p, attrs, id);
+                }
+            } else {
+                r.cache.hits++;
+            }
+            apply(o, p.toString(), null, r);
+        } catch (IOException e) {
+            r.skippedPaths.add(new Skipped(p.toString(), "IO error: " + e.getMessage()));
+            r.skippedCounts.put("io", r.skippedCounts.getOrDefault("io", 0L) + 1L);
+        }
+    }
+
+    private Outcome cached(ObjectId id, byte[] data, Result r) {
+        if (cache == null) return scanBytes(data);
+        Outcome o = cache.byBlob(id);
+        if (o != null) { r.cache.hits++; return o; }
+        r.cache.misses++;
+        o = scanBytes(data);
+        cache.put(id, o);
+        return o;
+    }
+
+    private void apply(Outcome o, String path, String commit, Result r) {
+        if (o.binary) {
+            r.skippedPaths.add(new Skipped(path, "NUL byte detected in binary file"));
+            r.skippedCounts.put("binary", r.skippedCounts.getOrDefault("binary", 0L) + 1L);
+            return;
+        }
+        r.filesScanned++;
+        if (o.allow != null) {
+            r.skippedPaths.add(new Skipped(path, "Allowlist pattern matched: " + o.allow));
+            r.skippedCounts.put("allow", r.skippedCounts.getOrDefault("allow", 0L) + 1L);
+            return;
+        }
+        for (Match m : o.matches) r.findings.add(new Finding(path, m.rule, m.sample, commit));
+    }
 
-        String name = p.getFileName().toString();
-        int dot = name.lastIndexOf('.');
-        String ext;
-        if (dot > 0) {
-            ext = name.substring(dot + 1).toLowerCase();
-        } else if (dot == 0) {
-            ext = name.substring(1).toLowerCase();
-        } else {
-            ext = name.toLowerCase();
+    private Outcome scanBytes(byte[] data) {
+        Outcome o = new Outcome();
+        if (binary(data)) {
+            o.binary = true;
+            return o;
         }
 
-        boolean allowed = config.includeExtensions.contains(ext) || config.includeExtensions.contains(name) || config.includeExtensions.contains("." + ext);
-        return !allowed ? "Extension not included: " + (dot == 0 ? "." + ext : ext) : null;
+        String s = new String(data);
+
+        for (String allow : config.allowPatterns) if (s.contains(allow)) {
+            o.allow = allow;
+            return o;
+        }
+
+        match(s, data, o);
+        return o;
     }
 
-    private void scanFile(Path p, Result r) {
-        try {
-            byte[] data = java.nio.file.Files.readAllBytes(p);
+    private static boolean binary(byte[] data) {
+        int limit = Math.min(data.length, 4096); for (int i=0;i<limit;i++) if (data[i]==0) return true;
+        return false;
+    }
 
-            int limit = Math.min(data.length, 4096); for (int i=0;i<limit;i++) if (data[i]==0) {
-                r.skippedPaths.add(new Skipped(p.toString(), "NUL byte detected in binary file"));
-                r.skippedCounts.put("binary", r.skippedCounts.getOrDefault("binary", 0L) + 1L);
-                return;
-            }
+    /** Rule and entropy matches for one text; {@code s} is {@code data} decoded. */
+    private void match(String s, byte[] data, Outcome o) {
+        ruleSet().scan(s, (rule, sample) -> o.matches.add(new Match(rule.name, sample)));
 
-            String s = new String(data);
-            r.filesScanned++;
+        String name = "entropy>="+config.entropyThreshold;
+        entropy.get().scan(data, 0, data.length, tok -> o.matches.add(new Match(name, tok)));
+    }
 
-            for (String allow : config.allowPatterns) if (s.contains(allow)) {
-                r.skippedPaths.add(new Skipped(p.toString(), "Allowlist pattern matched: " + allow));
-                r.skippedCounts.put("allow", r.skippedCounts.getOrDefault("allow", 0L) + 1L);
-                return;
-            }
+    private static final int STREAM_CONTEXT = 256;
 
-            for (Rule rule : config.rules) {
-                Pattern pat = Pattern.compile(rule.pattern);
-                var m = pat.matcher(s);
-                while (m.find()) r.findings.add(new Finding(p.toString(), rule.name, m.group()));
+    /**
+     * Same outcome as {@link #scanBytes} but with bounded memory: text is decoded into a fixed char
+     * window. Consecutive windows share {@code streamOverlap} characters plus a little look-behind
+     * context, and each window only reports matches that start in its own slice, so a match no longer
+     * than the overlap is found exactly once. Entropy is checked on the raw bytes as they are read; a
+     * sample is cut at one window length for pathologically long tokens.
+     */
+    private Outcome scanStream(InputStream in) throws IOException {
+        Outcome o = new Outcome();
+        byte[] head = in.readNBytes(4096);
+        for (byte b : head) if (b == 0) { o.binary = true; return o; }
+
+        int keep = STREAM_CONTEXT + config.streamOverlap;
+        char[] buf = new char[Math.max(config.streamWindow, 2 * keep)];
+        CharBuffer cb = CharBuffer.wrap(buf);
+        CharsetDecoder dec = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bb = ByteBuffer.allocate(64 * 1024);
+        bb.put(head).flip();
+
+        RuleSet rs = ruleSet();
+        int[] from = new int[rs.size()];
+        Map<Rule, List<Match>> perRule = new LinkedHashMap<>();
+        for (Rule rule : config.rules) perRule.put(rule, new ArrayList<>());
+        List<Match> entropy = new ArrayList<>();
+        String name = "entropy>="+config.entropyThreshold;
+        Consumer<String> token = tok -> entropy.add(new Match(name, tok));
+        EntropyDetector ed = this.entropy.get();
+        ed.reset();
+        ed.feed(head, 0, head.length, token);
+        int allowIdx = config.allowPatterns.size();
+
+        boolean inputDone = false, ended = false, decoderDone = false;
+        while (true) {
+            while (cb.hasRemaining() && !decoderDone) {
+                if (!inputDone) {
+                    if (dec.decode(bb, cb, false).isOverflow()) break;
+                    bb.compact();
+                    int n = in.read(bb.array(), bb.position(), bb.remaining());
+                    if (n < 0) inputDone = true;
+                    else { ed.feed(bb.array(), bb.position(), n, token); bb.position(bb.position() + n); }
+                    bb.flip();
+                } else {
+                    if (!ended) { if (dec.decode(bb, cb, true).isOverflow()) break; ended = true; }
+                    if (dec.flush(cb).isOverflow()) break;
+                    decoderDone = true;
+                }
             }
+            int len = cb.position();
+            boolean last = decoderDone;
+            CharBuffer win = CharBuffer.wrap(buf, 0, len);
+            int limit = last ? len : len - config.streamOverlap;
 
-            for (String tok : s.split("[^A-Za-z0-9+/=_-]+")) {
-                if (tok.length() >= 20 && shannon(tok) >= config.entropyThreshold) r.findings.add(new Finding(p.toString(), "entropy>="+config.entropyThreshold, tok));
+            for (int a=0;a<allowIdx;a++) if (contains(buf, len, config.allowPatterns.get(a))) { allowIdx = a; break; }
+            if (allowIdx == 0 && !config.allowPatterns.isEmpty()) break;
+            if (allowIdx == config.allowPatterns.size()) {
+                rs.scan(win, from, limit, (rule, sample) -> perRule.get(rule).add(new Match(rule.name, sample)));
+                if (last) ed.finish(token);
             }
+            if (last) break;
 
-        } catch (IOException e) {
-            r.skippedPaths.add(new Skipped(p.toString(), "IO error: " + e.getMessage()));
-            r.skippedCounts.put("io", r.skippedCounts.getOrDefault("io", 0L) + 1L);
+            int shift = len - keep;
+            for (int r=0;r<from.length;r++) from[r] = Math.max(from[r], limit) - shift;
+            System.arraycopy(buf, shift, buf, 0, keep);
+            cb.clear().position(keep);
+        }
+
+        if (allowIdx < config.allowPatterns.size()) {
+            o.allow = config.allowPatterns.get(allowIdx);
+            return o;
+        }
+        perRule.values().forEach(o.matches::addAll);
+        o.matches.addAll(entropy);
+        return o;
+    }
+
+    private static boolean contains(char[] buf, int len, String needle) {
+        int n = needle.length();
+        if (n == 0) return true;
+        char c0 = needle.charAt(0);
+        outer:
+        for (int i=0;i+n<=len;i++) {
+            if (buf[i] != c0) continue;
+            for (int j=1;j<n;j++) if (buf[i+j] != needle.charAt(j)) continue outer;
+            return true;
         }
+        return false;
     }
 
-    private double shannon(String s) {
-        int[] counts = new int[256]; int n=0;
-        for (char c: s.toCharArray()) if (c<256) { counts[c]++; n++; }
-        double H=0.0; for (int c: counts) if (c!=0) { double p=(double)c/n; H -= p*(Math.log(p)/Math.log(2)); }
-        return H;
+    /** Identifies everything that decides a blob's outcome, so cached outcomes are dropped when the rules change. */
+    public String fingerprint() {
+        StringBuilder sb = new StringBuilder("v1\n");
+        for (Rule rule : config.rules) sb.append("rule ").append(rule.name).append('\0').append(rule.pattern).append('\n');
+        for (String a : config.allowPatterns) sb.append("allow ").append(a).append('\n');
+        sb.append("entropy ").append(config.entropyThreshold).append('\n');
+        sb.append("stream ").append(config.streamThreshold).append(' ').append(config.streamWindow).append(' ').append(config.streamOverlap).append('\n');
+        return ScanCache.blobId(sb.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8)).name();
     }
 
     public static void installPreCommitHook(Path repoRoot) {
@@ -229,7 +787,7 @@ public class SecretScanner {
             String script = """
                     #!/bin/sh
                     if [ -z "$GITTOR_CLASSPATH" ]; then echo 'Set GITTOR_CLASSPATH to your jars'; exit 1; fi
-                    exec java -cp "$GITTOR_CLASSPATH" dev.you.gittor.Main secrets scan --repo . --json
+                    exec java -cp "$GITTOR_CLASSPATH" dev.Main secrets --repo . --staged
                     """;
             Files.writeString(hook, script);
             hook.toFile().setExecutable(true, false);
@@ -0,0 +1,92 @@
+package dev.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+/**
+ * Lists the files git tracks below a directory straight from the index, the way {@code git ls-files}
+ * does: untracked and ignored files never show up and nothing is stat'ed. Size and mtime come from
+ * the index entry, except for racily-clean entries whose size git has zeroed. Only regular and
+ * executable files are listed (no symlinks or submodules), and each path once even during a merge.
+ */
+public final class TrackedFiles {
+    private TrackedFiles() {}
+
+    /** Same contract as {@link PathRules#walk(Path, Predicate, BiConsumer)}, in index (path) order. */
+    public static long walk(Path root, Predicate<Path> prune, BiConsumer<Path, BasicFileAttributes> file) {
+        Path abs = root.toAbsolutePath().normalize();
+        try (Repository repo = new FileRepositoryBuilder().readEnvironment().findGitDir(abs.toFile()).build()) {
+            if (repo.isBare()) throw new IllegalArgumentException("no working tree for " + root);
+            Path top = repo.getWorkTree().toPath().toAbsolutePath().normalize();
+            String prefix = top.equals(abs) ? "" : top.relativize(abs).toString().replace('\\', '/') + "/";
+            DirCache dc = repo.readDirCache();
+            long pruned = 0;
+            String checkedDir = "";
+            String prunedDir = null;
+            String last = null;
+            for (int i=0;i<dc.getEntryCount();i++) {
+                DirCacheEntry e = dc.getEntry(i);
+                String path = e.getPathString();
+                if (!path.startsWith(prefix) || path.equals(last)) continue;
+                last = path;
+                FileMode mode = e.getFileMode();
+                if (mode != FileMode.REGULAR_FILE && mode != FileMode.EXECUTABLE_FILE) continue;
+                String rel = path.substring(prefix.length());
+                if (prunedDir != null && rel.startsWith(prunedDir)) continue;
+                prunedDir = null;
+                int slash = rel.lastIndexOf('/');
+                String dir = slash < 0 ? "" : rel.substring(0, slash + 1);
+                if (!dir.equals(checkedDir)) {
+                    int common = 0;
+                    for (int k=0;k<Math.min(dir.length(), checkedDir.length());k++) {
+                        if (dir.charAt(k) != checkedDir.charAt(k)) break;
+                        if (dir.charAt(k) == '/') common = k + 1;
+                    }
+                    for (int k=dir.indexOf('/', common); k >= 0; k=dir.indexOf('/', k + 1)) {
+                        if (prune.test(root.resolve(dir.substring(0, k)))) { prunedDir = dir.substring(0, k + 1); break; }
+                    }
+                    checkedDir = dir;
+                    if (prunedDir != null) { pruned++; continue; }
+                }
+                Path p = root.resolve(rel);
+                // git zeroes the size of entries written in the same second as the file changed; stat those
+                BasicFileAttributes attrs = new IndexAttributes(e);
+                if (e.isSmudged()) {
+                    try { attrs = Files.readAttributes(p, BasicFileAttributes.class); } catch (IOException ignored) {}
+                }
+                file.accept(p, attrs);
+            }
+            return pruned;
+        } catch (IOException e) { throw new UncheckedIOException("index read failed: "+e.getMessage(), e); }
+    }
+
+    private static final class IndexAttributes implements BasicFileAttributes {
+        private final long size;
+        private final FileTime mtime;
+        IndexAttributes(DirCacheEntry e) {
+            this.size = e.getLength();
+            this.mtime = FileTime.from(e.getLastModifiedInstant());
+        }
+        @Override public FileTime lastModifiedTime() { return mtime; }
+        @Override public FileTime lastAccessTime() { return mtime; }
+        @Override public FileTime creationTime() { return mtime; }
+        @Override public boolean isRegularFile() { return true; }
+        @Override public boolean isDirectory() { return false; }
+        @Override public boolean isSymbolicLink() { return false; }
+        @Override public boolean isOther() { return false; }
+        @Override public long size() { return size; }
+        @Override public Object fileKey() { return null; }
+    }
+}
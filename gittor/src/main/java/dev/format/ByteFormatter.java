@@ -0,0 +1,243 @@
+package dev.format;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * One pass over the bytes of a UTF-8 file doing everything {@link FileFormatter#format} does, into buffers
+ * that are reused from file to file. Lines are built with CR/CRLF folded and tabs expanded, trimmed when
+ * they end, held back while they could still be part of a blank-line run, then wrapped and written with
+ * the target line separator.
+ *
+ * <p>The output is byte for byte what the old String pipeline produced, quirks included: trimming also
+ * removes blanks before a U+0085/U+2028/U+2029 that ends a line, since the {@code $} in the trim regex
+ * matches there; a blank-line run may also start after such a character; collapsing to 0 still leaves
+ * one empty line; and wrapping ends every line, the last one included, with a newline. Widths count
+ * UTF-16 units, so a long line with non-ASCII text is wrapped through a String.
+ *
+ * <p>With a US-ASCII platform charset the old pipeline decoded every non-ASCII byte to U+FFFD and wrote
+ * it back as {@code '?'}; in {@code ascii} mode this does the same.
+ */
+final class ByteFormatter {
+    private final boolean ascii;
+    private boolean crlf, trim, finalNl, wrap;
+    private int collapse, tabWidth, wrapAt;
+
+    private byte[] line = new byte[256];
+    private int lineLen;
+
+    // a line that may start a blank-line run, followed by the run so far, each line ended by '\n'
+    private byte[] run = new byte[256];
+    private int runLen, runPrefix, runNewlines;
+    private boolean inRun;
+
+    private byte[] out = new byte[8192];
+    private int outLen;
+
+    ByteFormatter(boolean ascii) { this.ascii = ascii; }
+
+    void configure(String eol, boolean trim, boolean finalNl, int collapse, boolean detab, int tabWidth, int wrapAt) {
+        this.crlf = eol.equals("crlf");
+        this.trim = trim;
+        this.finalNl = finalNl;
+        this.collapse = collapse;
+        this.tabWidth = detab ? Math.max(1, tabWidth) : 0;
+        this.wrapAt = wrapAt;
+        this.wrap = wrapAt > 0;
+    }
+
+    /** Formats {@code in}; false if it is not well-formed UTF-8 (outside {@code ascii} mode), in which case nothing was produced. */
+    boolean format(byte[] in) {
+        lineLen = 0;
+        runLen = 0;
+        inRun = false;
+        outLen = 0;
+        int n = in.length;
+        for (int i=0;i<n;i++) {
+            byte b = in[i];
+            if (b >= 0) {
+                if (b == '\n' || b == '\r') {
+                    if (b == '\r' && i + 1 < n && in[i+1] == '\n') i++;
+                    endLine(true);
+                } else if (b == '\t' && tabWidth > 0) {
+                    ensureLine(tabWidth);
+                    Arrays.fill(line, lineLen, lineLen + tabWidth, (byte) ' ');
+                    lineLen += tabWidth;
+                } else {
+                    ensureLine(1);
+                    line[lineLen++] = b;
+                }
+            } else if (ascii) {
+                ensureLine(1);
+                line[lineLen++] = '?';
+            } else {
+                int len = sequenceLength(in, i);
+                if (len < 0) return false;
+                ensureLine(len);
+                System.arraycopy(in, i, line, lineLen, len);
+                lineLen += len;
+                i += len - 1;
+            }
+        }
+        endLine(false);
+        if (finalNl && (outLen == 0 || out[outLen-1] != '\n')) newline();
+        return true;
+    }
+
+    int length() { return outLen; }
+
+    byte[] output() { return out; }
+
+    private void endLine(boolean terminated) {
+        if (trim) lineLen = trimmed(line, lineLen);
+        collapseLine(line, lineLen, terminated);
+        lineLen = 0;
+    }
+
+    /** Length after dropping the blanks {@code [ \t]+$} matches: at the very end, or before a final U+0085/U+2028/U+2029. */
+    private static int trimmed(byte[] b, int len) {
+        int t = finalSeparator(b, len);
+        int end = len - t;
+        int k = end;
+        while (k > 0 && (b[k-1] == ' ' || b[k-1] == '\t')) k--;
+        if (k == end) return len;
+        System.arraycopy(b, end, b, k, t);
+        return k + t;
+    }
+
+    /** Byte length of a U+0085, U+2028 or U+2029 ending the first {@code len} bytes, else 0. */
+    private static int finalSeparator(byte[] b, int len) {
+        if (len >= 2 && b[len-2] == (byte) 0xc2 && b[len-1] == (byte) 0x85) return 2;
+        if (len >= 3 && b[len-3] == (byte) 0xe2 && b[len-2] == (byte) 0x80 && (b[len-1] == (byte) 0xa8 || b[len-1] == (byte) 0xa9)) return 3;
+        return 0;
+    }
+
+    private static boolean blank(byte b) { return b == ' ' || b == '\t' || b == 0x0b || b == '\f'; }
+
+    /**
+     * Where in a terminated line the collapse regex's {@code ^} can start a run of blank lines: 0 for a blank
+     * line, the start of the trailing blanks if a U+0085/U+2028/U+2029 precedes them, else -1.
+     */
+    private static int runStart(byte[] b, int len) {
+        int k = len;
+        while (k > 0 && blank(b[k-1])) k--;
+        return k == 0 || finalSeparator(b, k) > 0 ? k : -1;
+    }
+
+    private void collapseLine(byte[] b, int len, boolean terminated) {
+        if (collapse < 0) { emit(b, 0, len, terminated); return; }
+        if (inRun) {
+            if (terminated && runStart(b, len) == 0) {
+                // the content of a run long enough to collapse is not needed any more
+                if (runNewlines <= collapse) appendRun(b, len);
+                runNewlines++;
+                return;
+            }
+            endRun();
+        }
+        int start = terminated ? runStart(b, len) : -1;
+        if (start < 0) { emit(b, 0, len, terminated); return; }
+        inRun = true;
+        runLen = 0;
+        runPrefix = start;
+        runNewlines = 1;
+        appendRun(b, len);
+    }
+
+    private void appendRun(byte[] b, int len) {
+        if (runLen + len + 1 > run.length) run = Arrays.copyOf(run, Math.max(run.length * 2, runLen + len + 1));
+        System.arraycopy(b, 0, run, runLen, len);
+        runLen += len;
+        run[runLen++] = '\n';
+    }
+
+    private void endRun() {
+        inRun = false;
+        if (runNewlines > collapse) {
+            emit(run, 0, runPrefix, true);
+            for (int i=1;i<Math.max(1, collapse);i++) emit(run, 0, 0, true);
+            return;
+        }
+        for (int s=0, e; s < runLen; s = e + 1) {
+            e = s;
+            while (run[e] != '\n') e++;
+            emit(run, s, e, true);
+        }
+    }
+
+    private void emit(byte[] b, int from, int to, boolean terminated) {
+        if (!wrap) {
+            append(b, from, to - from);
+            if (terminated) newline();
+            return;
+        }
+        int len = to - from;
+        if (len <= wrapAt || b[from] == '#' || (len >= 3 && b[from] == '`' && b[from+1] == '`' && b[from+2] == '`')) {
+            append(b, from, len);
+            newline();
+            return;
+        }
+        for (int i=from;i<to;i++) {
+            if (b[i] < 0) {
+                StringBuilder sb = new StringBuilder();
+                FileFormatter.wrapLine(new String(b, from, len, StandardCharsets.UTF_8), wrapAt, sb);
+                String s = crlf ? sb.toString().replace("\n", "\r\n") : sb.toString();
+                byte[] enc = s.getBytes(StandardCharsets.UTF_8);
+                append(enc, 0, enc.length);
+                return;
+            }
+        }
+        // ASCII: same walk as FileFormatter.wrapLine, on bytes
+        int idx = 0;
+        while (idx < len) {
+            int end = Math.min(idx + wrapAt, len);
+            int space = -1;
+            for (int k=Math.min(end, len - 1);k>=0;k--) if (b[from+k] == ' ') { space = k; break; }
+            if (space <= idx) space = end;
+            append(b, from + idx, space - idx);
+            newline();
+            idx = (space < len && b[from+space] == ' ') ? space + 1 : space;
+        }
+    }
+
+    private void newline() {
+        ensureOut(2);
+        if (crlf) out[outLen++] = '\r';
+        out[outLen++] = '\n';
+    }
+
+    private void append(byte[] b, int from, int len) {
+        ensureOut(len);
+        System.arraycopy(b, from, out, outLen, len);
+        outLen += len;
+    }
+
+    private void ensureOut(int extra) {
+        if (outLen + extra > out.length) out = Arrays.copyOf(out, Math.max(out.length * 2, outLen + extra));
+    }
+
+    private void ensureLine(int extra) {
+        if (lineLen + extra > line.length) line = Arrays.copyOf(line, Math.max(line.length * 2, lineLen + extra));
+    }
+
+    /** Length of the well-formed UTF-8 sequence starting with the non-ASCII byte at {@code i}, or -1. */
+    private static int sequenceLength(byte[] b, int i) {
+        int c = b[i] & 0xff;
+        int len, lo = 0x80, hi = 0xbf;
+        if (c >= 0xc2 && c <= 0xdf) len = 2;
+        else if (c >= 0xe0 && c <= 0xef) {
+            len = 3;
+            if (c == 0xe0) lo = 0xa0;
+            else if (c == 0xed) hi = 0x9f;
+        } else if (c >= 0xf0 && c <= 0xf4) {
+            len = 4;
+            if (c == 0xf0) lo = 0x90;
+            else if (c == 0xf4) hi = 0x8f;
+        } else return -1;
+        if (i + len > b.length) return -1;
+        int c1 = b[i+1] & 0xff;
+        if (c1 < lo || c1 > hi) return -1;
+        for (int k=2;k<len;k++) if ((b[i+k] & 0xc0) != 0x80) return -1;
+        return len;
+    }
+}
@@ -1,10 +1,29 @@
 package dev.format;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class FileFormatter {
+    /** formatTree lists files from the git index instead of walking the directory. */
+    public boolean trackedOnly;
+    /** Files formatTree formats at once; 1 keeps it on the calling thread. */
+    public int threads = 1;
+    /** formatTree takes only the files changed since this ref (against its merge base with HEAD), if set. */
+    public String since;
+    /** formatTree takes only the files whose staged content differs from HEAD. */
+    public boolean staged;
+    /** Files formatTree may skip because an earlier run found them formatted; saved when formatTree ends. */
+    public FormatManifest manifest;
+    /** Prefix of the temp files {@link #replace} writes next to the file it replaces; the walk skips them. */
+    static final String TEMP_PREFIX = ".gittor-fmt-";
+
     public static class Change {
         public String path;
         public long originalBytes;
@@ -20,21 +39,62 @@ public class FileFormatter {
 
     public static class Result {
         public List<Change> changes = new ArrayList<>();
-        public long filesConsidered=0, filesRewritten=0, bytesDelta=0;
+        public long filesConsidered=0, filesRewritten=0, bytesDelta=0, prunedDirs=0;
+        /** Of filesConsidered, those the manifest settled: unchanged size and mtime (not read), or same content hash. */
+        public long manifestSkipped=0, manifestHits=0;
+    }
+
+    // format() decodes and encodes with the platform charset, as it always has; the byte engine knows two of them
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final boolean BYTE_ENGINE = CHARSET.equals(StandardCharsets.UTF_8) || CHARSET.equals(StandardCharsets.US_ASCII);
+    private final ThreadLocal<ByteFormatter> engine = ThreadLocal.withInitial(() -> new ByteFormatter(CHARSET.equals(StandardCharsets.US_ASCII)));
+
+    /** What format() applies to files of one language or extension, once its overrides are resolved. */
+    private static final class Settings {
+        final String eol;
+        final boolean trim, finalNl, detab;
+        final int collapse, tabw, wrapMd;
+
+        Settings(FormatterConfig cfg, String langOrExt) {
+            Map<String,String> ov = cfg.forKey(langOrExt);
+            eol = ov.getOrDefault("eol", cfg.eol);
+            trim = Boolean.parseBoolean(ov.getOrDefault("trimTrailing", String.valueOf(cfg.trimTrailing)));
+            finalNl = Boolean.parseBoolean(ov.getOrDefault("ensureFinalNewline", String.valueOf(cfg.ensureFinalNewline)));
+            collapse = Integer.parseInt(ov.getOrDefault("collapseBlankLinesTo", String.valueOf(cfg.collapseBlankLinesTo)));
+            detab = Boolean.parseBoolean(ov.getOrDefault("detab", String.valueOf(cfg.detab)));
+            tabw = Integer.parseInt(ov.getOrDefault("tabWidth", String.valueOf(cfg.tabWidth)));
+            int wrap = Integer.parseInt(ov.getOrDefault("wrapMarkdownAt", String.valueOf(cfg.wrapMarkdownAt)));
+            wrapMd = ("Markdown".equalsIgnoreCase(langOrExt) || "md".equalsIgnoreCase(langOrExt) || "txt".equalsIgnoreCase(langOrExt)) ? wrap : 0;
+        }
+
+        @Override public String toString() {
+            return "eol="+eol+" trim="+trim+" finalNl="+finalNl+" collapse="+collapse+" detab="+detab+" tabWidth="+tabw+" wrap="+wrapMd;
+        }
+    }
+
+    /** Hash of the settings format() applies for {@code langOrExt}; it changes only when the outcome for that key can. */
+    public static String settingsHash(FormatterConfig cfg, String langOrExt) {
+        return dev.core.ScanCache.blobId(new Settings(cfg, langOrExt).toString().getBytes(StandardCharsets.UTF_8)).name();
     }
 
+    /** Returns {@code in} itself when nothing changes. */
     public byte[] format(byte[] in, FormatterConfig cfg, String langOrExt) {
-        String s = new String(in);
+        Settings st = new Settings(cfg, langOrExt);
 
-        Map<String,String> ov = cfg.forKey(langOrExt);
-        String eol = ov.getOrDefault("eol", cfg.eol);
-        boolean trim = Boolean.parseBoolean(ov.getOrDefault("trimTrailing", String.valueOf(cfg.trimTrailing)));
-        boolean finalNl = Boolean.parseBoolean(ov.getOrDefault("ensureFinalNewline", String.valueOf(cfg.ensureFinalNewline)));
-        int collapse = Integer.parseInt(ov.getOrDefault("collapseBlankLinesTo", String.valueOf(cfg.collapseBlankLinesTo)));
-        boolean detab = Boolean.parseBoolean(ov.getOrDefault("detab", String.valueOf(cfg.detab)));
-        int tabw = Integer.parseInt(ov.getOrDefault("tabWidth", String.valueOf(cfg.tabWidth)));
-        int wrapMd = Integer.parseInt(ov.getOrDefault("wrapMarkdownAt", String.valueOf(cfg.wrapMarkdownAt)));
+        // malformed UTF-8 and other charsets go through a String
+        if (BYTE_ENGINE) {
+            ByteFormatter f = engine.get();
+            f.configure(st.eol, st.trim, st.finalNl, st.collapse, st.detab, st.tabw, st.wrapMd);
+            if (f.format(in)) {
+                int n = f.length();
+                return Arrays.equals(f.output(), 0, n, in, 0, in.length) ? in : Arrays.copyOf(f.output(), n);
+            }
+        }
+        return formatString(new String(in), st.eol, st.trim, st.finalNl, st.collapse, st.detab, st.tabw, st.wrapMd);
+    }
 
+    /** The String pipeline the byte engine replaced; it still handles other charsets and malformed UTF-8. */
+    static byte[] formatString(String s, String eol, boolean trim, boolean finalNl, int collapse, boolean detab, int tabw, int wrapMd) {
         String lineSep = eol.equals("crlf") ? "\r\n" : "\n";
 
         s = s.replace("\r\n", "\n").replace("\r", "\n");
@@ -51,20 +111,9 @@ public class FileFormatter {
             s = s.replaceAll("(?m)^(?:\\s*\\n){"+(collapse+1)+",}", "\n".repeat(Math.max(1, collapse)));
         }
 
-        if (wrapMd > 0 && ("Markdown".equalsIgnoreCase(langOrExt) || "md".equalsIgnoreCase(langOrExt) || "txt".equalsIgnoreCase(langOrExt))) {
+        if (wrapMd > 0) {
             StringBuilder out = new StringBuilder();
-            for (String line : s.split("\n",-1)) {
-                if (line.length() <= wrapMd || line.startsWith("#") || line.startsWith("```")) { out.append(line).append("\n"); continue; }
-                int idx = 0;
-                while (idx < line.length()) {
-                    int end = Math.min(idx + wrapMd, line.length());
-                    // try to break on space
-                    int space = line.lastIndexOf(' ', end);
-                    if (space <= idx) space = end;
-                    out.append(line, idx, space).append("\n");
-                    idx = (space < line.length() && line.charAt(space)==' ')? space+1 : space;
-                }
-            }
+            for (String line : s.split("\n",-1)) wrapLine(line, wrapMd, out);
             s = out.toString();
         }
 
@@ -74,31 +123,177 @@ public class FileFormatter {
         return s.getBytes();
     }
 
+    /** Appends {@code line} to {@code out} broken at the last space before each {@code wrapMd} chars, every piece ending in a newline. */
+    static void wrapLine(String line, int wrapMd, StringBuilder out) {
+        if (line.length() <= wrapMd || line.startsWith("#") || line.startsWith("```")) { out.append(line).append("\n"); return; }
+        int idx = 0;
+        while (idx < line.length()) {
+            int end = Math.min(idx + wrapMd, line.length());
+            // try to break on space
+            int space = line.lastIndexOf(' ', end);
+            if (space <= idx) space = end;
+            out.append(line, idx, space).append("\n");
+            idx = (space < line.length() && line.charAt(space)==' ')? space+1 : space;
+        }
+    }
+
     public Result formatTree(Path root, FormatterConfig cfg,
                              java.util.function.Function<Path,String> langKey,
                              java.util.function.Function<Path,String> skipReason,
+                             java.util.function.Predicate<Path> pruneDir,
                              boolean write) {
+        if (threads > 1) return formatTreeParallel(root, cfg, langKey, skipReason, pruneDir, write);
         Result r = new Result();
+        Map<String, String> configs = new HashMap<>();
+        r.prunedDirs = walk(root, pruneDir, (p, attrs) -> formatPath(p, attrs, cfg, configs, langKey, skipReason, write, r));
+        if (manifest != null) manifest.save(since != null || staged);
+        return r;
+    }
+
+    private long walk(Path root, java.util.function.Predicate<Path> pruneDir, java.util.function.BiConsumer<Path, java.nio.file.attribute.BasicFileAttributes> file) {
+        if (since != null || staged) return dev.core.ChangedFiles.walk(root, since, staged, pruneDir, file);
+        return dev.core.PathRules.walk(root, trackedOnly, pruneDir, file);
+    }
+
+    /** {@code configs} caches {@link #settingsHash} per key; it is only used with a manifest. */
+    private void formatPath(Path p, java.nio.file.attribute.BasicFileAttributes attrs, FormatterConfig cfg, Map<String, String> configs,
+                            java.util.function.Function<Path,String> langKey,
+                            java.util.function.Function<Path,String> skipReason,
+                            boolean write, Result r) {
+        if (p.getFileName().toString().startsWith(TEMP_PREFIX)) return;
+        String reason = skipReason.apply(p);
+        if (reason != null) return;
         try {
-            Files.walk(root).filter(Files::isRegularFile).forEach(p -> {
-                String reason = skipReason.apply(p);
-                if (reason != null) return;
-                try {
-                    byte[] in = Files.readAllBytes(p);
-
-                    if (dev.analysis.LanguageDetector.looksBinary(in)) return;
-                    r.filesConsidered++;
-                    String key = langKey.apply(p); // language or ext
-                    byte[] out = format(in, cfg, key);
-                    if (!Arrays.equals(in, out)) {
-                        r.filesRewritten++;
-                        r.bytesDelta += (out.length - in.length);
-                        if (write) Files.write(p, out);
-                        r.changes.add(new Change(p.toString(), in.length, out.length, "formatted"));
-                    }
-                } catch (IOException ignored) {}
+            if (manifest != null) {
+                // the index's size and mtime say nothing about edits made since it was written
+                if (trackedOnly && since == null && !staged) attrs = Files.readAttributes(p, java.nio.file.attribute.BasicFileAttributes.class);
+                FormatManifest.Entry e = manifest.byStat(p, attrs, k -> configs.computeIfAbsent(k, kk -> settingsHash(cfg, kk)));
+                if (e != null) {
+                    manifest.keep(p, e);
+                    if (e.key != null) { r.filesConsidered++; r.manifestSkipped++; }
+                    return;
+                }
+            }
+            byte[] in = Files.readAllBytes(p);
+
+            if (dev.analysis.LanguageDetector.looksBinary(in)) {
+                if (manifest != null) manifest.remember(p, attrs, null, null, null);
+                return;
+            }
+            String key = langKey.apply(p); // key: language or ext
+            if (manifest == null) { formatFile(p, in, cfg, key, write, r); return; }
+
+            String blob = dev.core.ScanCache.blobId(in).name();
+            String config = configs.computeIfAbsent(key, k -> settingsHash(cfg, k));
+            if (manifest.formatted(p, blob, key, config)) {
+                manifest.remember(p, attrs, blob, key, config);
+                r.filesConsidered++;
+                r.manifestHits++;
+                return;
+            }
+            byte[] out = formatFile(p, in, cfg, key, write, r);
+            if (out == in) manifest.remember(p, attrs, blob, key, config);
+            // formatting is not always idempotent (wrapping), so only remember a rewrite that is stable
+            else if (write && Arrays.equals(out, format(out, cfg, key))) manifest.remember(p, Files.readAttributes(p, java.nio.file.attribute.BasicFileAttributes.class), dev.core.ScanCache.blobId(out).name(), key, config);
+        } catch (IOException ignored) {}
+    }
+
+    /** One worker's share of a parallel run, with the walk position of each change it made. */
+    private static final class Partial {
+        final Result r = new Result();
+        final List<Long> seqs = new ArrayList<>();
+    }
+
+    /**
+     * The walk numbers files and hands them to {@code threads} workers through a bounded queue; when it is
+     * full the walk waits. Each worker records into its own {@link Partial}, and the changes are put back in
+     * walk order at the end, so the result is the one a sequential run gives.
+     */
+    private Result formatTreeParallel(Path root, FormatterConfig cfg,
+                                      java.util.function.Function<Path,String> langKey,
+                                      java.util.function.Function<Path,String> skipReason,
+                                      java.util.function.Predicate<Path> pruneDir,
+                                      boolean write) {
+        Queue<Partial> partials = new ConcurrentLinkedQueue<>();
+        ThreadLocal<Partial> local = ThreadLocal.withInitial(() -> { Partial part = new Partial(); partials.add(part); return part; });
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(4 * threads), (task, ex) -> {
+            try { ex.getQueue().put(task); } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("format interrupted", e);
+            }
+        });
+        Map<String, String> configs = new ConcurrentHashMap<>();
+        long[] seq = {0};
+        Result r = new Result();
+        try {
+            r.prunedDirs = walk(root, pruneDir, (p, attrs) -> {
+                if (failure.get() != null) return;
+                long s = seq[0]++;
+                pool.execute(() -> {
+                    Partial part = local.get();
+                    int before = part.r.changes.size();
+                    try { formatPath(p, attrs, cfg, configs, langKey, skipReason, write, part.r); } catch (RuntimeException e) { failure.compareAndSet(null, e); }
+                    if (part.r.changes.size() > before) part.seqs.add(s);
+                });
             });
-        } catch (IOException e) { throw new RuntimeException(e); }
+        } finally {
+            pool.shutdown();
+            try { pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        if (failure.get() != null) throw failure.get();
+        if (manifest != null) manifest.save(since != null || staged);
+
+        List<Map.Entry<Long, Change>> changes = new ArrayList<>();
+        for (Partial part : partials) {
+            r.filesConsidered += part.r.filesConsidered;
+            r.filesRewritten += part.r.filesRewritten;
+            r.bytesDelta += part.r.bytesDelta;
+            r.manifestSkipped += part.r.manifestSkipped;
+            r.manifestHits += part.r.manifestHits;
+            for (int i=0;i<part.seqs.size();i++) changes.add(Map.entry(part.seqs.get(i), part.r.changes.get(i)));
+        }
+        changes.sort(Map.Entry.comparingByKey());
+        for (var e : changes) r.changes.add(e.getValue());
         return r;
     }
-}
\ No newline at end of file
+
+    /** Formats one text file whose content is already in {@code in}, recording it in {@code r}; returns the formatted content, {@code in} itself if unchanged. */
+    public byte[] formatFile(Path p, byte[] in, FormatterConfig cfg, String key, boolean write, Result r) throws IOException {
+        r.filesConsidered++;
+        byte[] out = format(in, cfg, key);
+        if (!Arrays.equals(in, out)) {
+            r.filesRewritten++;
+            r.bytesDelta += (out.length - in.length);
+            if (write) replace(p, out);
+            r.changes.add(new Change(p.toString(), in.length, out.length, "formatted"));
+            return out;
+        }
+        return in;
+    }
+
+    /**
+     * Writes {@code data} to a temp file in the same directory, fsyncs it and renames it over {@code p}, so a
+     * crash leaves either the old content or the new, never a truncated file. A symlink is followed and its
+     * target replaced; the file's permissions are kept.
+     */
+    static void replace(Path p, byte[] data) throws IOException {
+        Path target = Files.isSymbolicLink(p) ? p.toRealPath() : p;
+        Path dir = target.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, TEMP_PREFIX, ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer bb = ByteBuffer.wrap(data);
+                while (bb.hasRemaining()) ch.write(bb);
+                ch.force(true);
+            }
+            try { Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(target)); } catch (UnsupportedOperationException ignored) {}
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        // make the rename itself durable; not every platform can open a directory
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) { d.force(true); } catch (IOException ignored) {}
+    }
+}
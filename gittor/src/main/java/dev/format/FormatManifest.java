@@ -0,0 +1,137 @@
+package dev.format;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Files an earlier format run found already formatted, kept in {@code .gittor/format-manifest.json}.
+ * Each entry has the language key the file was formatted as and the blob id of its content, plus size
+ * and mtime so an untouched file is not even read; next to the entries is a hash of the settings each
+ * key resolved to. Editing the settings of one language only invalidates that language's entries; the
+ * whole manifest is dropped when the fingerprint (language detection, charset) differs. Binary files
+ * are remembered with no key so they are not read again either.
+ */
+public class FormatManifest {
+    public static final String FILE = "format-manifest.json";
+
+    // written as [key, size, mtime, blob]: there is one per file, and field names would double the file
+    @JsonFormat(shape = JsonFormat.Shape.ARRAY)
+    @JsonPropertyOrder({"key", "size", "mtime", "blob"})
+    public static class Entry {
+        public String key;
+        public long size;
+        public long mtime;
+        public String blob;
+        public Entry() {}
+        Entry(String key, long size, long mtime, String blob) {
+            this.key = key; this.size = size; this.mtime = mtime; this.blob = blob;
+        }
+    }
+
+    public static class Data {
+        public String fingerprint;
+        public long startedAt;
+        /** Settings hash per language key, for the entries below. */
+        public Map<String, String> configs = new HashMap<>();
+        public Map<String, Entry> files = new HashMap<>();
+    }
+
+    private final Path root;
+    private final Path file;
+    private final Data prev;
+    private final Data next = new Data();
+
+    private FormatManifest(Path root, Path file, Data prev, String fingerprint) {
+        this.root = root;
+        this.file = file;
+        this.prev = prev;
+        next.fingerprint = fingerprint;
+        next.startedAt = System.currentTimeMillis();
+        next.configs = new ConcurrentHashMap<>();
+        next.files = new ConcurrentHashMap<>();
+    }
+
+    public static FormatManifest open(Path root, String fingerprint) {
+        Path file = root.resolve(".gittor").resolve(FILE);
+        Data prev = new Data();
+        if (Files.isRegularFile(file)) {
+            try {
+                Data d = mapper().readValue(file.toFile(), Data.class);
+                if (fingerprint.equals(d.fingerprint)) prev = d;
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable format manifest " + file + ": " + e.getMessage());
+            }
+        }
+        return new FormatManifest(root, file, prev, fingerprint);
+    }
+
+    /**
+     * The last run's entry if size and mtime still match and, for text, {@code configs} gives its key the
+     * same settings hash as then. Files touched while that run was in progress are not trusted.
+     */
+    public Entry byStat(Path p, BasicFileAttributes attrs, Function<String, String> configs) {
+        Entry e = prev.files.get(key(p));
+        long mtime = attrs.lastModifiedTime().toMillis();
+        if (e == null || e.size != attrs.size() || e.mtime != mtime || mtime >= prev.startedAt) return null;
+        return e.key == null || configs.apply(e.key).equals(prev.configs.get(e.key)) ? e : null;
+    }
+
+    /** Whether the last run found {@code blob} at {@code p} formatted under settings hash {@code config}. */
+    public boolean formatted(Path p, String blob, String key, String config) {
+        Entry e = prev.files.get(key(p));
+        return e != null && blob.equals(e.blob) && key.equals(e.key) && config.equals(prev.configs.get(key));
+    }
+
+    /** Carries {@code e}, returned by {@link #byStat}, over to the manifest this run writes. */
+    public void keep(Path p, Entry e) {
+        if (e.key != null) next.configs.putIfAbsent(e.key, prev.configs.get(e.key));
+        next.files.put(key(p), e);
+    }
+
+    /** Records {@code p} as formatted for {@code key} under settings hash {@code config}, or with a null key as binary. */
+    public void remember(Path p, BasicFileAttributes attrs, String blob, String key, String config) {
+        if (key != null) next.configs.put(key, config);
+        next.files.put(key(p), new Entry(key, attrs.size(), attrs.lastModifiedTime().toMillis(), blob));
+    }
+
+    /**
+     * Writes the entries this run used. With {@code partial} (only some files were walked) the last
+     * run's entries for files not seen are kept as well, unless the settings of their key changed.
+     */
+    public void save(boolean partial) {
+        if (partial) {
+            prev.configs.forEach(next.configs::putIfAbsent);
+            prev.files.forEach((path, e) -> {
+                if (e.key == null || Objects.equals(prev.configs.get(e.key), next.configs.get(e.key))) next.files.putIfAbsent(path, e);
+            });
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), FILE, ".tmp");
+            mapper().writeValue(tmp.toFile(), next);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write format manifest " + file + ": " + e.getMessage());
+        }
+    }
+
+    private String key(Path p) {
+        return root.relativize(p).toString().replace('\\', '/');
+    }
+
+    private static ObjectMapper mapper() {
+        // the file map's keys are paths; interning tens of thousands of them as field names only costs time
+        return new ObjectMapper(JsonFactory.builder().disable(JsonFactory.Feature.INTERN_FIELD_NAMES).build())
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+}
@@ -0,0 +1,95 @@
+package dev.util;
+
+import java.util.*;
+
+/**
+ * Multi-literal matcher: one pass over the text reports every occurrence of every key.
+ * Keys are ASCII; matching folds ASCII case and case-sensitive keys are re-checked on a hit.
+ */
+public class AhoCorasick {
+    public interface Hit { void at(int start, int key); }
+
+    private final List<String> keys = new ArrayList<>();
+    private final List<Boolean> ignoreCase = new ArrayList<>();
+    private int[][] next;
+    private int[][] out;
+    private String[] key;
+    private boolean[] ci;
+
+    public int add(String key, boolean ignoreCase) {
+        if (key.isEmpty()) throw new IllegalArgumentException("empty key");
+        for (int i=0;i<key.length();i++) if (key.charAt(i) >= 128) throw new IllegalArgumentException("non-ASCII key: " + key);
+        keys.add(key);
+        this.ignoreCase.add(ignoreCase);
+        next = null;
+        return keys.size() - 1;
+    }
+
+    public int size() { return keys.size(); }
+
+    public AhoCorasick build() {
+        List<int[]> trie = new ArrayList<>();
+        List<int[]> outs = new ArrayList<>();
+        trie.add(new int[128]); outs.add(new int[0]);
+        for (int k=0;k<keys.size();k++) {
+            String key = keys.get(k);
+            int st = 0;
+            for (int i=0;i<key.length();i++) {
+                int c = fold(key.charAt(i));
+                if (trie.get(st)[c] == 0) { trie.get(st)[c] = trie.size(); trie.add(new int[128]); outs.add(new int[0]); }
+                st = trie.get(st)[c];
+            }
+            outs.set(st, concat(outs.get(st), new int[]{k}));
+        }
+        int[] fail = new int[trie.size()];
+        ArrayDeque<Integer> q = new ArrayDeque<>();
+        for (int c=0;c<128;c++) if (trie.get(0)[c] != 0) q.add(trie.get(0)[c]);
+        while (!q.isEmpty()) {
+            int r = q.poll();
+            for (int c=0;c<128;c++) {
+                int s = trie.get(r)[c];
+                if (s != 0) {
+                    fail[s] = trie.get(fail[r])[c];
+                    outs.set(s, concat(outs.get(s), outs.get(fail[s])));
+                    q.add(s);
+                } else {
+                    trie.get(r)[c] = trie.get(fail[r])[c];
+                }
+            }
+        }
+        next = trie.toArray(new int[0][]);
+        out = outs.toArray(new int[0][]);
+        key = keys.toArray(new String[0]);
+        ci = new boolean[key.length];
+        for (int k=0;k<ci.length;k++) ci[k] = ignoreCase.get(k);
+        return this;
+    }
+
+    public void search(CharSequence s, Hit hit) {
+        if (next == null) build();
+        int st = 0;
+        for (int i=0, n=s.length(); i<n; i++) {
+            char ch = s.charAt(i);
+            st = ch < 128 ? next[st][fold(ch)] : 0;
+            for (int k : out[st]) {
+                int start = i - key[k].length() + 1;
+                if (!ci[k] && !exact(s, start, key[k])) continue;
+                hit.at(start, k);
+            }
+        }
+    }
+
+    private static boolean exact(CharSequence s, int start, String key) {
+        for (int i=0;i<key.length();i++) if (s.charAt(start+i) != key.charAt(i)) return false;
+        return true;
+    }
+
+    private static int fold(char c) { return (c >= 'A' && c <= 'Z') ? c + 32 : c; }
+
+    private static int[] concat(int[] a, int[] b) {
+        if (b.length == 0) return a;
+        int[] r = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, r, a.length, b.length);
+        return r;
+    }
+}
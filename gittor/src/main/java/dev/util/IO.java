@@ -2,24 +2,36 @@ package dev.util;
 
 import java.io.*;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
 public class IO {
-    public static void copyTree(Path src, Path dst) {
+    /** Copies {@code src} to {@code dst} except the directory {@code skip}, which dst may lie in (a backup kept in the repository it backs up). */
+    public static void copyTree(Path src, Path dst, Path skip) {
         try {
-            Files.walk(src).forEach(p -> {
-                try {
-                    Path rel = src.relativize(p);
-                    Path out = dst.resolve(rel);
-                    if (Files.isDirectory(p)) Files.createDirectories(out);
-                    else {
-                        Files.createDirectories(out.getParent());
-                        Files.copy(p, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
-                    }
-                } catch (IOException e) { throw new UncheckedIOException(e); }
+            Files.walkFileTree(src, new SimpleFileVisitor<>() {
+                @Override public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                    if (d.startsWith(skip) || d.startsWith(dst)) return FileVisitResult.SKIP_SUBTREE;
+                    Files.createDirectories(dst.resolve(src.relativize(d)));
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) throws IOException {
+                    Files.copy(f, dst.resolve(src.relativize(f)), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                    return FileVisitResult.CONTINUE;
+                }
             });
         } catch (IOException e) { throw new UncheckedIOException(e); }
     }
+    /** Parses sizes like "512", "64KB", "16MB", "2GB" (binary multiples). */
+    public static long parseSize(String s) {
+        String u = s.trim().toUpperCase();
+        long mult = 1;
+        if (u.endsWith("KB")) { mult = 1024; u = u.substring(0, u.length()-2); }
+        else if (u.endsWith("MB")) { mult = 1024L*1024; u = u.substring(0, u.length()-2); }
+        else if (u.endsWith("GB")) { mult = 1024L*1024*1024; u = u.substring(0, u.length()-2); }
+        else if (u.endsWith("B")) u = u.substring(0, u.length()-1);
+        return Long.parseLong(u.trim()) * mult;
+    }
     public static String ts() { return DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").format(LocalDateTime.now()); }
 }
@@ -0,0 +1,46 @@
+package dev.cli;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import picocli.CommandLine;
+
+class RewriteHistoryCmdTest {
+    private static RewriteHistoryCmd parse(String... args) {
+        RewriteHistoryCmd cmd = new RewriteHistoryCmd();
+        new CommandLine(cmd).parseArgs(args);
+        return cmd;
+    }
+
+    @Test
+    void bracesKeepTheirCommas() {
+        RewriteHistoryCmd cmd = parse("--repo", "r", "--delete-files", "{id_rsa,id_dsa},*.pem", "--delete-paths", "a/{b,{c,d}}/,e");
+        assertArrayEquals(new String[]{"{id_rsa,id_dsa}", "*.pem"}, RewriteHistoryCmd.list(cmd.deleteFiles));
+        assertArrayEquals(new String[]{"a/{b,{c,d}}/", "e"}, RewriteHistoryCmd.list(cmd.deletePaths));
+    }
+
+    @Test
+    void quantifiersKeepTheirCommas() {
+        RewriteHistoryCmd cmd = parse("--repo", "r", "--replace-text", "\\d{2,4}=>N,foo=>bar");
+        assertArrayEquals(new String[]{"\\d{2,4}=>N", "foo=>bar"}, RewriteHistoryCmd.list(cmd.replaceText));
+    }
+
+    @Test
+    void unopenedBraceIsText() {
+        RewriteHistoryCmd cmd = parse("--repo", "r", "--replace-text", "foo=>bar,}=>)", "--delete-files", "a.txt,b}.txt");
+        assertArrayEquals(new String[]{"foo=>bar", "}=>)"}, RewriteHistoryCmd.list(cmd.replaceText));
+        assertArrayEquals(new String[]{"a.txt", "b}.txt"}, RewriteHistoryCmd.list(cmd.deleteFiles));
+    }
+
+    @Test
+    void escapedCommaAndBraceAreText() {
+        assertArrayEquals(new String[]{"a\\,b", "\\{c", "d"}, RewriteHistoryCmd.list(new String[]{"a\\,b,\\{c,d"}));
+    }
+
+    @Test
+    void optionsRepeat() {
+        RewriteHistoryCmd cmd = parse("--repo", "r", "--delete-files", "a,b", "--delete-files", "{c,d}");
+        assertArrayEquals(new String[]{"a", "b", "{c,d}"}, RewriteHistoryCmd.list(cmd.deleteFiles));
+        assertNull(RewriteHistoryCmd.list(cmd.deletePaths));
+    }
+}
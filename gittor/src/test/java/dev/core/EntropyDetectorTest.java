@@ -0,0 +1,105 @@
+package dev.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+/** EntropyDetector reports exactly the tokens the split-and-shannon() check it replaced reported. */
+class EntropyDetectorTest {
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/=_-";
+
+    /** The check scanBytes ran before EntropyDetector. */
+    private static List<String> old(String s, double threshold) {
+        List<String> out = new ArrayList<>();
+        for (String tok : s.split("[^A-Za-z0-9+/=_-]+")) {
+            if (tok.length() >= 20 && shannon(tok) >= threshold) out.add(tok);
+        }
+        return out;
+    }
+
+    private static double shannon(String s) {
+        int[] counts = new int[256]; int n=0;
+        for (char c: s.toCharArray()) if (c<256) { counts[c]++; n++; }
+        double H=0.0; for (int c: counts) if (c!=0) { double p=(double)c/n; H -= p*(Math.log(p)/Math.log(2)); }
+        return H;
+    }
+
+    private static List<String> detector(String s, double threshold) {
+        List<String> out = new ArrayList<>();
+        byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+        new EntropyDetector(threshold, 1 << 20).scan(b, 0, b.length, out::add);
+        return out;
+    }
+
+    private static String token(Random rnd, int len, int symbols) {
+        StringBuilder sb = new StringBuilder(len);
+        for (int i=0;i<len;i++) sb.append(ALPHABET.charAt(rnd.nextInt(symbols)));
+        return sb.toString();
+    }
+
+    @Test
+    void sameTokensOnRandomText() {
+        Random rnd = new Random(7);
+        String[] seps = {" ", "\n", "\"", ": ", ".", "\t", "{}", "é"};
+        for (int doc=0;doc<200;doc++) {
+            StringBuilder sb = new StringBuilder();
+            int n = 1 + rnd.nextInt(40);
+            for (int i=0;i<n;i++) {
+                sb.append(token(rnd, 1 + rnd.nextInt(60), 2 + rnd.nextInt(ALPHABET.length() - 1)));
+                sb.append(seps[rnd.nextInt(seps.length)]);
+            }
+            String s = sb.toString();
+            for (double threshold : new double[] {2.0, 3.0, 3.5, 4.0, 4.5}) {
+                assertEquals(old(s, threshold), detector(s, threshold), s);
+            }
+        }
+    }
+
+    @Test
+    void thresholdEqualToTheTokenEntropyIsAMatch() {
+        // the table form can land a few ulps either side of the per-symbol sum; exact() has to settle these
+        Random rnd = new Random(11);
+        for (int i=0;i<2000;i++) {
+            String tok = token(rnd, 20 + rnd.nextInt(200), 2 + rnd.nextInt(ALPHABET.length() - 1));
+            double h = shannon(tok);
+            String s = "x = " + tok + ";";
+            assertEquals(List.of(tok), detector(s, h), tok);
+            assertEquals(List.of(), detector(s, Math.nextUp(h)), tok);
+            assertEquals(old(s, Math.nextDown(h)), detector(s, Math.nextDown(h)), tok);
+        }
+    }
+
+    @Test
+    void tokensLongerThanTheTable() {
+        Random rnd = new Random(3);
+        for (int len : new int[] {4095, 4096, 4097, 20000}) {
+            String tok = token(rnd, len, 64);
+            double h = shannon(tok);
+            assertEquals(List.of(tok), detector("a " + tok + " b", h));
+            assertEquals(List.of(), detector("a " + tok + " b", Math.nextUp(h)));
+        }
+    }
+
+    @Test
+    void tokenSplitAcrossFeedsMatchesWholeScan() {
+        Random rnd = new Random(5);
+        for (int doc=0;doc<100;doc++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i=0;i<20;i++) sb.append(token(rnd, 1 + rnd.nextInt(80), 64)).append(' ');
+            byte[] b = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+            List<String> chunked = new ArrayList<>();
+            EntropyDetector ed = new EntropyDetector(4.0, 1 << 20);
+            ed.reset();
+            for (int off=0;off<b.length;) {
+                int len = Math.min(b.length - off, 1 + rnd.nextInt(50));
+                ed.feed(b, off, len, chunked::add);
+                off += len;
+            }
+            ed.finish(chunked::add);
+            assertEquals(old(sb.toString(), 4.0), chunked);
+        }
+    }
+}
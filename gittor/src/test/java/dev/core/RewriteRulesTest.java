@@ -0,0 +1,124 @@
+package dev.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class RewriteRulesTest {
+    private static RewriteRules files(String... globs) { return RewriteRules.of(globs, null, null); }
+    private static RewriteRules paths(String... globs) { return RewriteRules.of(null, globs, null); }
+
+    private static String replace(String in, String... rules) {
+        byte[] out = RewriteRules.of(null, null, rules).replace(in.getBytes(StandardCharsets.UTF_8));
+        return out == null ? null : new String(out, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void fileGlobsMatchTheName() {
+        assertTrue(files("*.bin").deletesFile("a.bin", "x/a.bin"));
+        assertFalse(files("*.bin").deletesFile("a.bin.txt", "a.bin.txt"));
+        assertTrue(files("id_rsa").deletesFile("id_rsa", "k/id_rsa"));
+        assertFalse(files("id_rsa").deletesFile("id_rsa.pub", "id_rsa.pub"));
+    }
+
+    @Test
+    void starAndQuestionMarkStopAtSlash() {
+        assertTrue(paths("src/*").deletesDir("src/a"));
+        assertFalse(paths("src/*").deletesFile("b.c", "src/a/b.c"));
+        assertFalse(paths("*.txt").deletesFile("b.txt", "a/b.txt"));
+        assertTrue(paths("*.txt").deletesFile("b.txt", "b.txt"));
+        assertTrue(paths("lib/v?/x").deletesDir("lib/v1/x"));
+        assertFalse(paths("a?b").deletesFile("b", "a/b"));
+    }
+
+    @Test
+    void doubleStarCrossesSlashAndMatchesAtTheRoot() {
+        assertTrue(paths("**/node_modules").deletesDir("node_modules"));
+        assertTrue(paths("**/node_modules").deletesDir("a/b/node_modules"));
+        assertTrue(paths("docs/**/*.pdf").deletesFile("x.pdf", "docs/x.pdf"));
+        assertTrue(paths("docs/**/*.pdf").deletesFile("x.pdf", "docs/a/b/x.pdf"));
+        assertTrue(paths("**/x/**/y").deletesDir("q/x/r/y"));
+        assertFalse(paths("**/x/**/y").deletesDir("q/x/r/yy"));
+    }
+
+    @Test
+    void bracesClassesAndEscapes() {
+        assertTrue(files("{id_rsa,id_dsa}").deletesFile("id_dsa", "id_dsa"));
+        assertFalse(files("{id_rsa,id_dsa}").deletesFile("id_ecdsa", "id_ecdsa"));
+        assertTrue(files("{a,{b,c}}.txt").deletesFile("c.txt", "c.txt"));
+        assertTrue(files("{a,b}{1,2}.txt").deletesFile("b2.txt", "b2.txt"));
+        assertTrue(files("[ab]?.log").deletesFile("bx.log", "bx.log"));
+        assertFalse(files("[!ab]?.log").deletesFile("bx.log", "bx.log"));
+        assertTrue(files("a\\*b").deletesFile("a*b", "a*b"));
+        assertFalse(files("a\\*b").deletesFile("axb", "axb"));
+    }
+
+    @Test
+    void regexCharactersInGlobsAreLiteral() {
+        assertTrue(files("a+b.txt").deletesFile("a+b.txt", "a+b.txt"));
+        assertFalse(files("a+b.txt").deletesFile("aab.txt", "aab.txt"));
+        assertFalse(files("*.bin").deletesFile("axbin", "axbin"));
+        assertTrue(files("file(1).*").deletesFile("file(1).doc", "file(1).doc"));
+    }
+
+    @Test
+    void trailingSlashMatchesDirectoriesOnly() {
+        assertTrue(paths("secrets/").deletesDir("secrets"));
+        assertFalse(paths("secrets/").deletesFile("secrets", "secrets"));
+        assertTrue(paths("secrets").deletesDir("secrets"));
+        assertTrue(paths("secrets").deletesFile("secrets", "secrets"));
+    }
+
+    @Test
+    void replacementsRunInOnePass() {
+        assertEquals("bc", replace("ab", "a=>b", "b=>c"));
+        assertEquals("bar", replace("foo", "foo=>bar", "bar=>baz"));
+        assertEquals("b1", replace("a1", "a\\d=>b1", "b\\d=>X"));
+    }
+
+    @Test
+    void leftmostMatchWinsThenFirstRule() {
+        assertEquals("Xc", replace("abc", "bc=>Y", "ab=>X"));
+        assertEquals("1b", replace("ab", "a=>1", "ab=>2"));
+        assertEquals("XY", replace("aaa", "aa=>X", "a=>Y"));
+    }
+
+    @Test
+    void groupReferencesBelongToTheirRule() {
+        assertEquals("mail example at bob key=<123>", replace("mail bob@example.com key=123", "(\\w+)@(\\w+)\\.com=>$2 at $1", "key=(\\d+)=>key=<$1>"));
+        assertEquals("Y2024 Labc", replace("2024-x abc!", "(?<y>\\d{4})-x=>Y${y}", "(?<y>[a-z]+)!=>L${y}"));
+        assertEquals("[] [b]", replace("ac abc", "a(b)?c=>[$1]", "x=>y"));
+    }
+
+    @Test
+    void backreferencesFallBackToRulesInTurn() {
+        assertEquals("X c a", replace("aa b a", "(a)\\1=>X", "b=>c"));
+    }
+
+    @Test
+    void escapedReplacementIsLiteral() {
+        assertEquals("$1", replace("x", "x=>\\$1"));
+        assertEquals("cost USD5", replace("cost $5", "\\$=>USD"));
+    }
+
+    @Test
+    void literalFindsLeaveOtherBytesAlone() {
+        byte[] latin1 = "café tok".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] out = RewriteRules.of(null, null, new String[]{"tok=>T"}).replace(latin1);
+        assertArrayEquals("café T".getBytes(StandardCharsets.ISO_8859_1), out);
+    }
+
+    @Test
+    void noMatchIsNull() {
+        assertNull(replace("nothing here", "password=>***"));
+        assertNull(replace("nothing here", "pass\\w+=>***", "key=>k"));
+    }
+
+    @Test
+    void badReplacementIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> RewriteRules.of(null, null, new String[]{"x=>$9"}));
+        assertThrows(IllegalArgumentException.class, () -> RewriteRules.of(null, null, new String[]{"x=>a\\"}));
+    }
+}
@@ -0,0 +1,94 @@
+package dev.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ScanCacheTest {
+    private static final String FP = "rules v1";
+
+    @TempDir Path dir;
+
+    @Test
+    void runsKeepEntriesTheyDidNotUse() throws Exception {
+        Path f = file("a.txt", "a\n");
+        ObjectId a = ScanCache.blobId("a\n".getBytes()), b = ScanCache.blobId("b\n".getBytes());
+        // a working-tree run, then a history run that never looks at a.txt
+        ScanCache c = ScanCache.open(dir, FP);
+        c.put(a, new SecretScanner.Outcome());
+        c.remember(f, attrs(f), a);
+        c.save();
+        c = ScanCache.open(dir, FP);
+        c.put(b, new SecretScanner.Outcome());
+        c.save();
+
+        c = ScanCache.open(dir, FP);
+        assertNotNull(c.byStat(f, attrs(f)));
+        assertNotNull(c.byBlob(b));
+    }
+
+    @Test
+    void unusedEntriesExpire() throws Exception {
+        Path f = file("a.txt", "a\n");
+        ObjectId a = ScanCache.blobId("a\n".getBytes()), b = ScanCache.blobId("b\n".getBytes());
+        ScanCache c = ScanCache.open(dir, FP);
+        c.put(a, new SecretScanner.Outcome());
+        c.remember(f, attrs(f), a);
+        c.save();
+        c = ScanCache.open(dir, FP);
+        c.maxAge = -1;
+        c.put(b, new SecretScanner.Outcome());
+        c.save();
+
+        c = ScanCache.open(dir, FP);
+        assertNull(c.byBlob(a));
+        assertNull(c.byStat(f, attrs(f)));
+        assertNotNull(c.byBlob(b));
+    }
+
+    @Test
+    void beyondMaxEntriesTheLongestUnusedGoFirst() throws Exception {
+        ObjectId[] ids = new ObjectId[4];
+        for (int i=0;i<ids.length;i++) ids[i] = ScanCache.blobId(("blob " + i).getBytes());
+        for (int i=0;i<3;i++) {
+            ScanCache c = ScanCache.open(dir, FP);
+            c.put(ids[i], new SecretScanner.Outcome());
+            c.save();
+            Thread.sleep(5);
+        }
+        ScanCache c = ScanCache.open(dir, FP);
+        c.maxEntries = 3;
+        c.put(ids[3], new SecretScanner.Outcome());
+        c.save();
+
+        c = ScanCache.open(dir, FP);
+        assertNull(c.byBlob(ids[0]));
+        for (int i=1;i<4;i++) assertNotNull(c.byBlob(ids[i]), "blob " + i);
+    }
+
+    @Test
+    void otherFingerprintDiscardsEverything() throws Exception {
+        ObjectId a = ScanCache.blobId("a\n".getBytes());
+        ScanCache c = ScanCache.open(dir, FP);
+        c.put(a, new SecretScanner.Outcome());
+        c.save();
+        assertNull(ScanCache.open(dir, "rules v2").byBlob(a));
+    }
+
+    private Path file(String name, String text) throws Exception {
+        Path f = Files.writeString(dir.resolve(name), text);
+        Files.setLastModifiedTime(f, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+        return f;
+    }
+
+    private static BasicFileAttributes attrs(Path f) throws Exception {
+        return Files.readAttributes(f, BasicFileAttributes.class);
+    }
+}
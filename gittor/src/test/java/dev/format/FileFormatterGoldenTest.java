@@ -0,0 +1,85 @@
+package dev.format;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Output of format() against files the String pipeline it replaced produced from the same input
+ * (src/test/resources/format, listed in cases.txt). Cases marked ascii are what that pipeline wrote
+ * with a US-ASCII platform charset.
+ */
+class FileFormatterGoldenTest {
+    static Stream<Arguments> cases() throws IOException {
+        List<Arguments> cases = new ArrayList<>();
+        for (String l : new String(resource("cases.txt"), StandardCharsets.UTF_8).split("\r?\n")) {
+            if (l.isBlank() || l.startsWith("#")) continue;
+            String[] f = l.trim().split("\\s+");
+            cases.add(Arguments.of(f[0], f[1], f[2], f[3], Arrays.copyOfRange(f, 4, f.length)));
+        }
+        return cases.stream();
+    }
+
+    static Stream<Arguments> utf8Cases() throws IOException {
+        return cases().filter(a -> a.get()[3].equals("utf8"));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("cases")
+    void matchesGolden(String expected, String input, String key, String charset, String[] settings) throws Exception {
+        FormatterConfig cfg = config(settings);
+        byte[] in = resource(input), want = resource(expected);
+        if (charset.equals("ascii")) {
+            ByteFormatter f = new ByteFormatter(true);
+            boolean wrap = key.equals("md") || key.equals("txt");
+            f.configure(cfg.eol, cfg.trimTrailing, cfg.ensureFinalNewline, cfg.collapseBlankLinesTo, cfg.detab, cfg.tabWidth, wrap ? cfg.wrapMarkdownAt : 0);
+            assertTrue(f.format(in));
+            assertArrayEquals(want, Arrays.copyOf(f.output(), f.length()));
+        } else {
+            assumeTrue(Charset.defaultCharset().equals(StandardCharsets.UTF_8), "platform charset is not UTF-8");
+            assertArrayEquals(want, new FileFormatter().format(in, cfg, key));
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("utf8Cases")
+    void reusedEngineMatchesGolden(String expected, String input, String key, String charset, String[] settings) throws Exception {
+        assumeTrue(Charset.defaultCharset().equals(StandardCharsets.UTF_8), "platform charset is not UTF-8");
+        // the engine's buffers carry over from file to file; a bigger file before must not leak into this one
+        FileFormatter formatter = new FileFormatter();
+        FormatterConfig cfg = config(settings);
+        formatter.format(resource("wrap.md"), cfg, "md");
+        assertArrayEquals(resource(expected), formatter.format(resource(input), cfg, key));
+    }
+
+    private static FormatterConfig config(String[] settings) throws ReflectiveOperationException {
+        FormatterConfig cfg = new FormatterConfig();
+        for (String s : settings) {
+            String[] kv = s.split("=", 2);
+            Field f = FormatterConfig.class.getField(kv[0]);
+            if (f.getType() == boolean.class) f.setBoolean(cfg, Boolean.parseBoolean(kv[1]));
+            else if (f.getType() == int.class) f.setInt(cfg, Integer.parseInt(kv[1]));
+            else if (f.getType() == Integer.class) f.set(cfg, Integer.valueOf(kv[1]));
+            else f.set(cfg, kv[1]);
+        }
+        return cfg;
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        try (InputStream in = FileFormatterGoldenTest.class.getResourceAsStream("/format/" + name)) {
+            assertNotNull(in, name);
+            return in.readAllBytes();
+        }
+    }
+}